@@ -0,0 +1,71 @@
+package net.chatsystem.models;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ *  ContactList.search on a large roster, against filtering the whole contact list as the recipient
+ *  chooser used to list it:
+ *
+ *  mvn -P jmh test-compile exec:exec -D jmh.args="ContactSearchBenchmark -prof gc"
+ *
+ *  Prefixes go from one letter, which matches everyone and stops at the limit, to a whole username.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ContactSearchBenchmark {
+
+    private static final int LIMIT = 20;
+
+    @Param({"50000"})
+    public int contacts;
+
+    @Param({"u", "user12", "user12345"})
+    public String prefix;
+
+    private final ContactList list = ContactList.getInstance();
+
+    @Setup
+    public void setUp() throws UnknownHostException {
+        User.getInstance().setUsername("me");
+        list.flush();
+        List<Contact> roster = new ArrayList<>(contacts);
+        for (int i = 0; i < contacts; i++) {
+            roster.add(new Contact("user" + i, InetAddress.getByAddress(new byte[] {10, (byte) (i >> 16), (byte) (i >> 8), (byte) i})));
+        }
+        list.registerContacts(roster);
+    }
+
+    @Benchmark
+    public List<Contact> search() {
+        return list.search(prefix, LIMIT);
+    }
+
+    @Benchmark
+    public List<Contact> scan() {
+        return list.getContacts().stream()
+                .filter(contact -> contact.getUsername().startsWith(prefix))
+                .limit(LIMIT)
+                .toList();
+    }
+
+}
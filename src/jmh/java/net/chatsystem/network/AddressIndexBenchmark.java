@@ -0,0 +1,92 @@
+package net.chatsystem.network;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.chatsystem.models.Contact;
+
+/**
+ *  Contact lookup by sender address, as Message.getSender does for every packet, in AddressIndex
+ *  against the maps it replaced:
+ *
+ *  mvn -P jmh test-compile exec:exec -D jmh.args="AddressIndexBenchmark -prof gc"
+ *
+ *  optional is the former ContactList.getContactByIP, a ConcurrentHashMap behind an Optional.
+ *  Lookups use other InetAddress instances than the keys, as a received packet carries its own,
+ *  and one in eight misses, as packets from peers not yet discovered do.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AddressIndexBenchmark {
+
+    @Param({"16", "256", "4096"})
+    public int contacts;
+
+    private final Map<InetAddress, Contact> hashMap = new HashMap<>();
+    private final Map<InetAddress, Contact> concurrentMap = new ConcurrentHashMap<>();
+    private final AddressIndex<Contact> index = new AddressIndex<>();
+    private InetAddress[] lookups;
+    private int next = 0;
+
+    @Setup
+    public void setUp() throws UnknownHostException {
+        for (int i = 0; i < contacts; i++) {
+            InetAddress address = address(i);
+            Contact contact = new Contact("peer" + i, address);
+            hashMap.put(address, contact);
+            concurrentMap.put(address, contact);
+            index.put(address, contact);
+        }
+        lookups = new InetAddress[1024];
+        for (int i = 0; i < lookups.length; i++) {
+            lookups[i] = i % 8 == 7 ? address(contacts + i) : address((i * 7919) % contacts);
+        }
+    }
+
+    private static InetAddress address(int i) throws UnknownHostException {
+        return InetAddress.getByAddress(new byte[] {10, (byte) (i >> 16), (byte) (i >> 8), (byte) i});
+    }
+
+    private InetAddress nextLookup() {
+        InetAddress address = lookups[next];
+        next = (next + 1) & (lookups.length - 1);
+        return address;
+    }
+
+    @Benchmark
+    public Contact hashMap() {
+        return hashMap.get(nextLookup());
+    }
+
+    @Benchmark
+    public Optional<Contact> optional() {
+        return Optional.ofNullable(concurrentMap.get(nextLookup()));
+    }
+
+    @Benchmark
+    public Contact addressIndex() {
+        return index.get(nextLookup());
+    }
+
+}
@@ -0,0 +1,116 @@
+package net.chatsystem.network.discovery;
+
+import java.lang.reflect.Field;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.chatsystem.models.ContactList;
+import net.chatsystem.models.User;
+import net.chatsystem.network.LocalAddresses;
+import net.chatsystem.network.exceptions.InvalidMessageException;
+import net.chatsystem.network.messages.Message;
+import net.chatsystem.network.messages.WireFormat;
+
+/**
+ *  Inbound discovery path, from the received bytes to the end of DiscoveryServer.handleMessage,
+ *  for every message type, against a socket that drops whatever the server sends back:
+ *
+ *  mvn -P jmh test-compile exec:exec -D jmh.args="DiscoveryDispatchBenchmark -prof gc"
+ *
+ *  SELF is a broadcast of our own coming back, which should be dropped before anything is decoded.
+ *  DISCOVER_ME is handled as the first of its claim every time, not as a retransmission of the last one.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DiscoveryDispatchBenchmark {
+
+    @Param({"SELF", "DISCOVER_ME", "ACKNOWLEDGE_DISCOVER", "USERNAME_ALREADY_TAKEN",
+            "CHANGE_USERNAME_REQUEST", "STATUS_CHANGE", "DISCONNECT"})
+    public String kind;
+
+    private DiscoveryServer server;
+    private InetAddress peer;
+    // alternated, so that username changes keep succeeding
+    private byte[][] packets;
+    private int next = 0;
+    private Map<?, ?> acknowledged;
+
+    @Setup
+    public void setUp() throws Exception {
+        User.getInstance().setUsername("me");
+        ContactList.getInstance().flush();
+        peer = InetAddress.getByName("10.0.0.2");
+
+        server = new DiscoveryServer();
+        Field socketField = DiscoveryServer.class.getDeclaredField("socket");
+        socketField.setAccessible(true);
+        socketField.set(server, new NullDatagramSocket());
+        server.attemptLogin(); // lets the server handle the types that need a connection
+        Field acknowledgedField = DiscoveryServer.class.getDeclaredField("acknowledged");
+        acknowledgedField.setAccessible(true);
+        acknowledged = (Map<?, ?>) acknowledgedField.get(server);
+
+        // the peer is known, as it would be after discovery
+        ContactList.getInstance().registerContact("peer", peer);
+
+        packets = switch (kind) {
+            case "SELF" -> new byte[][] {encode(Message.Type.STATUS_CHANGE, "ONLINE")};
+            case "DISCOVER_ME", "ACKNOWLEDGE_DISCOVER" -> new byte[][] {encode(Message.Type.valueOf(kind), WireFormat.advertise("peer"))};
+            case "CHANGE_USERNAME_REQUEST" -> new byte[][] {
+                    encode(Message.Type.CHANGE_USERNAME_REQUEST, "peer2"),
+                    encode(Message.Type.CHANGE_USERNAME_REQUEST, "peer")
+            };
+            case "STATUS_CHANGE" -> new byte[][] {encode(Message.Type.STATUS_CHANGE, "AWAY")};
+            default -> new byte[][] {encode(Message.Type.valueOf(kind), "")};
+        };
+        if (kind.equals("SELF")) peer = LocalAddresses.getInstance().getPrimary();
+    }
+
+    @Setup(Level.Invocation)
+    public void forgetAcknowledged() {
+        if (kind.equals("DISCOVER_ME")) acknowledged.clear();
+    }
+
+    private static byte[] encode(Message.Type type, String content) {
+        return new Message(type, content, null).toBuffer();
+    }
+
+    // what DiscoveryServer.run does with every datagram
+    @Benchmark
+    public void dispatch() throws InvalidMessageException {
+        byte[] packet = packets[next];
+        next = (next + 1) % packets.length;
+        server.handleMessage(Message.parse(packet, packet.length, peer));
+    }
+
+    // drops everything, so that replies cost their encoding but never touch the network
+    static class NullDatagramSocket extends DatagramSocket {
+
+        NullDatagramSocket() throws SocketException {}
+
+        @Override
+        public void send(DatagramPacket p) {}
+    }
+
+}
@@ -0,0 +1,89 @@
+package net.chatsystem.network.messages;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.chatsystem.network.exceptions.InvalidMessageException;
+
+/**
+ *  Encoding and decoding of single messages, in both wire formats:
+ *
+ *  mvn -P jmh test-compile exec:exec -D jmh.args="MessageCodecBenchmark -prof gc"
+ *
+ *  Payload sizes go from an empty DISCONNECT to a pasted paragraph, with a username and a
+ *  typical chat line in between. `gc.alloc.rate.norm` is the number of bytes allocated per call.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageCodecBenchmark {
+
+    @Param({"0", "12", "140", "2000"})
+    public int payloadChars;
+
+    @Param({"V1", "V2"})
+    public WireFormat format;
+
+    private InetAddress address;
+    private String content;
+    private Message message;
+    private byte[] encoded;
+
+    @Setup
+    public void setUp() throws UnknownHostException {
+        address = InetAddress.getByName("10.0.0.5");
+        // mostly ASCII, with the odd accented letter
+        StringBuilder builder = new StringBuilder(payloadChars);
+        for (int i = 0; i < payloadChars; i++) builder.append(i % 50 == 49 ? '\u00e9' : (char) ('a' + i % 26));
+        content = builder.toString();
+        message = new Message(Message.Type.CHAT_MESSAGE, content, address);
+        encoded = message.toBuffer(format);
+    }
+
+    @Benchmark
+    public byte[] toBuffer() {
+        return message.toBuffer(format);
+    }
+
+    @Benchmark
+    public byte[] toFrame() {
+        return message.toFrame(format);
+    }
+
+    // what a receiver pays when it only routes on the type
+    @Benchmark
+    public Message.Type parse() throws InvalidMessageException {
+        return Message.parse(encoded, encoded.length, address).getType();
+    }
+
+    @Benchmark
+    public String parseAndDecode() throws InvalidMessageException {
+        return Message.parse(encoded, encoded.length, address).getContent();
+    }
+
+    @Benchmark
+    public Message build() {
+        return new MessageBuilder()
+                .setType(Message.Type.CHAT_MESSAGE)
+                .setContent(content)
+                .setAddress(address)
+                .build();
+    }
+
+}
@@ -6,6 +6,7 @@ import java.util.List;
 
 import net.chatsystem.controller.CommandLine;
 import net.chatsystem.controller.LoginController;
+import net.chatsystem.models.RosterCache;
 import net.chatsystem.network.chat.ChatServer;
 import net.chatsystem.network.discovery.DiscoveryServer;
 import net.chatsystem.ui.MainFrame;
@@ -16,11 +17,15 @@ public class Client {
         @Override
         public void run() {
             DiscoveryServer.getInstance().disconnect();
+            RosterCache.save();
         }
     }
 
     public static void main(String[] args) {
 
+        // the contacts known last time, shown as stale until discovery hears from them
+        RosterCache.loadInBackground();
+
         DiscoveryServer server = DiscoveryServer.getInstance();
         LoginController controller = LoginController.getInstance();
         ChatServer chat = ChatServer.getInstance();
@@ -36,6 +41,24 @@ public class Client {
             DiscoveryServer.RECEIVE_PORT = 2501;
         }
 
+        // discovery transport, defaults to broadcast
+        if (List.of(args).contains("--multicast")) {
+            DiscoveryServer.TRANSPORT = DiscoveryServer.Transport.MULTICAST;
+        }
+
+        // membership, defaults to heartbeats between every pair of peers
+        if (List.of(args).contains("--gossip")) {
+            DiscoveryServer.MEMBERSHIP = DiscoveryServer.Membership.GOSSIP;
+        }
+
+        // chat engine, defaults to one thread per connection
+        if (List.of(args).contains("--nio")) {
+            ChatServer.ENGINE = ChatServer.Engine.SELECTOR;
+        }
+        if (List.of(args).contains("--virtual")) {
+            ChatServer.ENGINE = ChatServer.Engine.VIRTUAL_THREADS;
+        }
+
         // bind the server
         try {
             chat.bind();
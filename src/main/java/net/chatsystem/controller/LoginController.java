@@ -6,12 +6,12 @@ import net.chatsystem.models.User;
 import net.chatsystem.network.chat.ChatSession;
 import net.chatsystem.network.discovery.DiscoveryServer;
 import net.chatsystem.network.exceptions.ChatException;
-import net.chatsystem.network.exceptions.RecipientOfflineException;
 import net.chatsystem.network.exceptions.UnknownRecipientException;
 import net.chatsystem.observer.IObserver;
 
 import java.util.List;
 import java.util.Scanner;
+import java.util.concurrent.CompletionException;
 
 public class LoginController extends Thread implements IObserver {
 
@@ -99,11 +99,16 @@ public class LoginController extends Thread implements IObserver {
     private void handleWaitingForCommand(Scanner sc) {
 
         String command = CommandLine.prompt("", sc);
+        if (command.startsWith("/find ")) {
+            find(command.substring("/find ".length()).trim());
+            return;
+        }
         switch (command) {
             case "/help" -> {
                 CommandLine.success("Available commands");
                 CommandLine.info("{} > you just tried it you know what it does :p", "/help");
                 CommandLine.info("{} > check your friend list", "/contacts");
+                CommandLine.info("{} > look a friend up by the start of their name", "/find <name>");
                 CommandLine.info("{} > sometimes it's nice to know who you truly are", "/me");
                 CommandLine.info("{} > but other times it's good to make a change", "/changeusername");
                 CommandLine.info("{} > would hate to see you leave!", "/disconnect");
@@ -116,9 +121,11 @@ public class LoginController extends Thread implements IObserver {
                     CommandLine.error("You're all alone :( but it's okay!");
                 }
                 for (Contact contact : ContactList.getInstance().getContacts()) {
-                    CommandLine.info(contact.getPrintableName());
+                    if (contact.isStale()) CommandLine.info("{} (not seen yet)", contact.getPrintableName());
+                    else CommandLine.info(contact.getPrintableName());
                 }
             }
+            case "/find" -> CommandLine.error("Find whom? Try {}", "/find <name>");
             case "/me" -> {
                 CommandLine.info(user.getPrintableName());
             }
@@ -162,20 +169,35 @@ public class LoginController extends Thread implements IObserver {
         state = ControllerState.WAITING_FOR_USERNAME_CHANGE_CONFIRMATION;
     }
 
+    // contacts listed at once, more of the name narrows them down
+    static int SEARCH_LIMIT = 20;
+
+    private void find(String prefix) {
+        List<Contact> found = ContactList.getInstance().search(prefix, SEARCH_LIMIT + 1);
+        if (found.isEmpty()) {
+            CommandLine.error("Nobody here goes by {}...", prefix);
+            return;
+        }
+        found.stream().limit(SEARCH_LIMIT).forEach(contact -> CommandLine.info(contact.getPrintableName()));
+        if (found.size() > SEARCH_LIMIT) CommandLine.info("...and more, type more of the name");
+    }
+
     // initiate chat
 
     private ChatSession currentChat;
+    private String recipientPrefix = "";
 
     void handleChooseContact(Scanner sc) {
-        List<Contact> list = ContactList.getInstance().getContacts();
-        CommandLine.success("Choose your recipient (/cancel to cancel)");
+        List<Contact> list = ContactList.getInstance().search(recipientPrefix, SEARCH_LIMIT);
+        CommandLine.success("Choose your recipient, or type the start of their name (/cancel to cancel)");
         int i = 1;
         for(Contact c : list) {
             CommandLine.info("{}. {}", i++, c.getPrintableName());
         }
-        String input = CommandLine.prompt("", sc);
+        String input = CommandLine.prompt(recipientPrefix, sc);
         if (input.equals("/cancel")) {
             CommandLine.error("Chat cancelled");
+            recipientPrefix = "";
             state = ControllerState.WAITING_FOR_COMMAND;
             return;
         }
@@ -183,7 +205,7 @@ public class LoginController extends Thread implements IObserver {
         try {
             target = Integer.parseInt(input);
         } catch (NumberFormatException e) {
-            CommandLine.error("Invalid number, try again.");
+            recipientPrefix = input; // listed again, narrowed down
             return;
         }
         if (target < 1 || target > list.size()) {
@@ -191,10 +213,11 @@ public class LoginController extends Thread implements IObserver {
             return;
         }
         Contact recipient = list.get(target-1);
+        recipientPrefix = "";
         try {
             this.currentChat = new ChatSession(recipient);
-            this.currentChat.attemptOpen();
-        } catch (RecipientOfflineException e) {
+            this.currentChat.attemptOpen().join(); // the command line has nothing better to do than wait
+        } catch (CompletionException e) {
             CommandLine.error("Recipient is offline");
             state = ControllerState.WAITING_FOR_COMMAND;
             return;
@@ -210,7 +233,10 @@ public class LoginController extends Thread implements IObserver {
                 this.currentChat.close();
                 state = ControllerState.WAITING_FOR_COMMAND;
             }
-            this.currentChat.send(input);
+            this.currentChat.send(input).exceptionally(failure -> {
+                CommandLine.error("Unable to chat {}", failure.getMessage());
+                return null;
+            });
             CommandLine.clearLine();
             CommandLine.info("{}: {}", User.getInstance().getUsername(), input);
         } catch (ChatException chatException) {
@@ -1,10 +1,15 @@
 package net.chatsystem.models;
 
+import net.chatsystem.network.messages.WireFormat;
+
 import java.net.InetAddress;
 
 public class Contact extends User {
 
     private final InetAddress remoteAddress;
+    private volatile WireFormat wireFormat = WireFormat.V1; // newest format the contact advertised
+    private volatile long lastSeen; // epoch milliseconds, 0 when unknown
+    private volatile User.Status cachedStatus; // read from the roster cache, null once the contact has been heard from
 
     public Contact(String username, InetAddress address) {
         super(username);
@@ -16,4 +21,34 @@ public class Contact extends User {
         return remoteAddress;
     }
 
+    public WireFormat getWireFormat() {
+        return wireFormat;
+    }
+
+    public void setWireFormat(WireFormat wireFormat) {
+        this.wireFormat = wireFormat;
+    }
+
+    public long getLastSeen() {
+        return lastSeen;
+    }
+
+    public void setLastSeen(long lastSeen) {
+        this.lastSeen = lastSeen;
+    }
+
+    // restored from the roster cache and not heard from since: its status is OFFLINE until then
+    public boolean isStale() {
+        return cachedStatus != null;
+    }
+
+    // the status it had when last seen, while stale
+    public User.Status getCachedStatus() {
+        return cachedStatus;
+    }
+
+    public void setCachedStatus(User.Status cachedStatus) {
+        this.cachedStatus = cachedStatus;
+    }
+
 }
@@ -1,10 +1,24 @@
 package net.chatsystem.models;
 
 import net.chatsystem.models.exceptions.UsernameAlreadyTakenException;
+import net.chatsystem.network.AddressIndex;
 
 import java.net.InetAddress;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 
+/**
+ * Contacts by username and by address. Readers never lock: lookups by username go to a concurrent map,
+ * and the list of all contacts and the index by address are published together, replaced on every change.
+ * Writers are serialized on the list's monitor, so that the username uniqueness checks and the
+ * updates they guard happen as one.
+ * Every change is also written to a bounded log, so that a subscriber can catch up with changesSince() in
+ * one batch, or start over from the latest snapshot when it has fallen further behind than the log reaches.
+ * Usernames are also kept sorted, case insensitively, so that search() only walks the contacts it returns.
+ * Contacts restored from the roster cache are stale: OFFLINE until heard from, and they give their username
+ * up to anyone else who claims it.
+ */
 public class ContactList {
 
     private static final class Holder {
@@ -15,13 +29,101 @@ public class ContactList {
         return Holder.INSTANCE;
     }
 
-    private final Map<String, Contact> contactsByUsername = new HashMap<>();
-    private final Map<InetAddress, Contact> contactsByIP = new HashMap<>();
+    private static final int LOG_CAPACITY = 1024; // changes kept, a power of two
+
+    // every contact, as of one version of the list
+    public record Snapshot(long version, List<Contact> contacts) {}
+
+    // the username and status are the contact's right after the change
+    public record Change(long version, Kind kind, Contact contact, String username, User.Status status) {
+        public enum Kind { ADDED, RENAMED, STATUS, REMOVED }
+    }
+
+    // the changes up to a version, or when the log no longer reaches back far enough, the snapshot that replaces them
+    public record Changes(long version, List<Change> changes, Snapshot snapshot) {
+        public boolean isReset() {
+            return snapshot != null;
+        }
+    }
+
+    private final Map<String, Contact> contactsByUsername = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListMap<String, Contact> contactsByName = new ConcurrentSkipListMap<>(); // by searchKey
+    private final AddressIndex<Contact> contactsByIP = new AddressIndex<>(); // the writers' copy, under the monitor
+    private final Change[] log = new Change[LOG_CAPACITY]; // by version, written before the version is published
+    private long version = 0; // of the last change, under the monitor
+    private volatile Published published = new Published(new Snapshot(0, List.of()), new AddressIndex<>());
+
+    // what readers see, swapped as one
+    private record Published(Snapshot snapshot, AddressIndex<Contact> byIP) {}
 
     private ContactList() {}
 
+    // writers only, under the monitor
+    private void record(Change.Kind kind, Contact contact) {
+        version++;
+        log[(int) (version & (LOG_CAPACITY - 1))] = new Change(version, kind, contact, contact.getUsername(), contact.getStatus());
+    }
+
+    // writers only, under the monitor, once they are done with their changes
+    private void publish() {
+        if (published.snapshot().version() == version) return;
+        Snapshot snapshot = new Snapshot(version, List.copyOf(contactsByUsername.values()));
+        published = new Published(snapshot, contactsByIP.copy());
+    }
+
+    private void setStatus(Contact contact, User.Status status) {
+        if (status != User.Status.OFFLINE) seen(contact);
+        if (contact.getStatus() == status) return;
+        if (status == User.Status.OFFLINE) contact.setLastSeen(System.currentTimeMillis());
+        contact.setStatus(status);
+        record(Change.Kind.STATUS, contact);
+    }
+
+    // heard from, directly or through a peer
+    private void seen(Contact contact) {
+        contact.setLastSeen(System.currentTimeMillis());
+        if (!contact.isStale()) return;
+        contact.setCachedStatus(null);
+        record(Change.Kind.STATUS, contact);
+    }
+
+    // a stale contact does not hold its username against someone else claiming it
+    private void evictStale(String username, InetAddress claimedFrom) {
+        Contact holder = contactsByUsername.get(username);
+        if (holder == null || !holder.isStale() || holder.getAddress().equals(claimedFrom)) return;
+        contactsByUsername.remove(username);
+        contactsByName.remove(searchKey(username));
+        contactsByIP.remove(holder.getAddress());
+        record(Change.Kind.REMOVED, holder);
+    }
+
     public synchronized Contact registerContact(String username, InetAddress address) throws UsernameAlreadyTakenException {
-        
+        Contact contact = register(username, address);
+        publish();
+        return contact;
+    }
+
+    // merges a whole roster under one lock, entries that clash with a username in use are skipped;
+    // the roster is someone else's view, so it only fills in contacts that we haven't heard from ourselves
+    // (unknown or restored from the cache); returns the contacts that were added or changed
+    public synchronized List<Contact> registerContacts(Collection<Contact> roster) {
+        List<Contact> changed = new ArrayList<>(roster.size());
+        for (Contact entry : roster) {
+            Contact known = contactsByIP.get(entry.getAddress());
+            if (known != null && !known.isStale()) continue;
+            try {
+                Contact contact = register(entry.getUsername(), entry.getAddress());
+                setStatus(contact, entry.getStatus());
+                contact.setWireFormat(entry.getWireFormat());
+                changed.add(contact);
+            } catch (UsernameAlreadyTakenException | IllegalArgumentException ignored) {}
+        }
+        publish();
+        return changed;
+    }
+
+    private Contact register(String username, InetAddress address) throws UsernameAlreadyTakenException {
+
         if (username == null) throw new NullPointerException();
         if (username.isBlank()) throw new IllegalArgumentException();
 
@@ -31,6 +133,7 @@ public class ContactList {
             throw new UsernameAlreadyTakenException();
         }
 
+        evictStale(username, address);
         Contact existingByUsername = contactsByUsername.get(username);
         Contact existingByIP = contactsByIP.get(address);
 
@@ -40,51 +143,133 @@ public class ContactList {
                 throw new UsernameAlreadyTakenException();
             }
             // same IP & username → just mark online
-            existingByUsername.setStatus(User.Status.ONLINE);
+            setStatus(existingByUsername, User.Status.ONLINE);
             return existingByUsername;
         }
 
         if (existingByIP != null) {
             // IP exists, new username → update username
             contactsByUsername.remove(existingByIP.getUsername()); // remove old mapping
+            contactsByName.remove(searchKey(existingByIP.getUsername()));
             existingByIP.setUsername(username);
             contactsByUsername.put(username, existingByIP);
+            contactsByName.put(searchKey(username), existingByIP);
+            record(Change.Kind.RENAMED, existingByIP);
+            seen(existingByIP);
             return existingByIP;
         }
 
         // completely new contact
         Contact contact = new Contact(username, address);
+        contact.setLastSeen(System.currentTimeMillis());
         contactsByUsername.put(username, contact);
         contactsByIP.put(address, contact);
+        contactsByName.put(searchKey(username), contact);
+        record(Change.Kind.ADDED, contact);
         return contact;
     }
 
     public synchronized void changeContactUsername(InetAddress address, String newUsername) throws UsernameAlreadyTakenException {
         if (User.getInstance().getUsername().equals(newUsername)) throw new UsernameAlreadyTakenException();
+        evictStale(newUsername, address);
         if (contactsByUsername.containsKey(newUsername)) throw new UsernameAlreadyTakenException();
 
         Contact contact = contactsByIP.get(address);
         if (contact == null) throw new IllegalArgumentException("No contact with given IP");
 
         contactsByUsername.remove(contact.getUsername());
+        contactsByName.remove(searchKey(contact.getUsername()));
         contact.setUsername(newUsername);
         contactsByUsername.put(newUsername, contact);
+        contactsByName.put(searchKey(newUsername), contact);
+        record(Change.Kind.RENAMED, contact);
+        publish();
+    }
+
+    public synchronized void changeContactStatus(Contact contact, User.Status status) {
+        setStatus(contact, status);
+        publish();
+    }
+
+    // contacts read from the roster cache, as stale ones; those whose address or username is already known are
+    // skipped, discovery got there first. Returns how many were restored
+    public synchronized int restore(Collection<Contact> cached) {
+        int restored = 0;
+        for (Contact contact : cached) {
+            String username = contact.getUsername();
+            if (username == null || username.isBlank() || User.getInstance().getUsername().equals(username)) continue;
+            if (contactsByUsername.containsKey(username) || contactsByIP.get(contact.getAddress()) != null) continue;
+            if (contact.getCachedStatus() == null) contact.setCachedStatus(contact.getStatus());
+            contact.setStatus(User.Status.OFFLINE);
+            contactsByUsername.put(username, contact);
+            contactsByIP.put(contact.getAddress(), contact);
+            contactsByName.put(searchKey(username), contact);
+            record(Change.Kind.ADDED, contact);
+            restored++;
+        }
+        publish();
+        return restored;
+    }
+
+    public Optional<Contact> getContact(String username) {
+        return Optional.ofNullable(username == null ? null : contactsByUsername.get(username));
     }
 
-    public synchronized Optional<Contact> getContact(String username) {
-        return Optional.ofNullable(contactsByUsername.get(username));
+    public Optional<Contact> getContactByIP(InetAddress address) {
+        return Optional.ofNullable(findContactByIP(address));
     }
 
-    public synchronized Optional<Contact> getContactByIP(InetAddress address) {
-        return Optional.ofNullable(contactsByIP.get(address));
+    // null when unknown, for the lookups made on every packet
+    public Contact findContactByIP(InetAddress address) {
+        return published.byIP().get(address);
     }
 
-    public synchronized List<Contact> getContacts() {
-        return List.copyOf(contactsByUsername.values());
+    // the current snapshot's list, neither locked nor copied
+    public List<Contact> getContacts() {
+        return published.snapshot().contacts();
+    }
+
+    public Snapshot getSnapshot() {
+        return published.snapshot();
+    }
+
+    // at most limit contacts whose username starts with the prefix, whatever the case, in alphabetical order
+    public List<Contact> search(String prefix, int limit) {
+        String from = prefix.toLowerCase(Locale.ROOT);
+        List<Contact> found = new ArrayList<>(Math.min(limit, 64));
+        for (Map.Entry<String, Contact> entry : contactsByName.tailMap(from).entrySet()) {
+            if (found.size() >= limit || !entry.getKey().startsWith(from)) break;
+            found.add(entry.getValue());
+        }
+        return found;
+    }
+
+    // usernames are unique but may differ only by case, the username itself follows to keep the keys apart
+    private static String searchKey(String username) {
+        return username.toLowerCase(Locale.ROOT) + '\u0000' + username;
+    }
+
+    // what happened after the given version, without locking; a subscriber applies it and asks again from its version
+    public Changes changesSince(long since) {
+        Published current = published;
+        Snapshot snapshot = current.snapshot();
+        long latest = snapshot.version();
+        if (since > latest || latest - since > LOG_CAPACITY) return new Changes(latest, List.of(), snapshot);
+        List<Change> changes = new ArrayList<>((int) (latest - since));
+        for (long v = since + 1; v <= latest; v++) {
+            Change change = log[(int) (v & (LOG_CAPACITY - 1))];
+            // a writer may have lapped us meanwhile
+            if (change == null || change.version() != v) return new Changes(latest, List.of(), snapshot);
+            changes.add(change);
+        }
+        return new Changes(latest, changes, null);
     }
 
     public synchronized void flush() {
+        for (Contact contact : contactsByUsername.values()) record(Change.Kind.REMOVED, contact);
         contactsByUsername.clear();
+        contactsByName.clear();
         contactsByIP.clear();
+        publish();
     }
 }
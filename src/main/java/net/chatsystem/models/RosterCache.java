@@ -0,0 +1,114 @@
+package net.chatsystem.models;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The roster as it was when the app last closed, so that known contacts show up at once on the next launch,
+ * as stale ones, until discovery hears from them again.
+ * One binary record per contact: the address bytes, the username, the last status and when it was last seen.
+ */
+public final class RosterCache {
+
+    public static Path FILE = Path.of(System.getProperty("user.home"), ".chatsystem", "roster.bin");
+
+    private static final int MAGIC = 0x43535231; // "CSR1"
+    private static final User.Status[] STATUSES = User.Status.values();
+
+    private static final CompletableFuture<Integer> loaded = new CompletableFuture<>();
+
+    private RosterCache() {}
+
+    // reads the cache on a thread of its own and restores it into ContactList, whatever happens loaded() completes
+    public static void loadInBackground() {
+        Thread loader = new Thread(() -> {
+            try {
+                loaded.complete(ContactList.getInstance().restore(read(FILE)));
+            } catch (NoSuchFileException ex) {
+                loaded.complete(0); // first launch
+            } catch (IOException | RuntimeException ex) {
+                System.out.println("Roster cache not loaded: " + ex);
+                loaded.complete(0);
+            }
+        }, "roster-cache");
+        loader.setDaemon(true);
+        loader.start();
+    }
+
+    // the number of contacts restored
+    public static CompletableFuture<Integer> loaded() {
+        return loaded;
+    }
+
+    public static void save() {
+        try {
+            write(FILE, ContactList.getInstance().getContacts());
+        } catch (IOException ex) {
+            System.out.println("Roster cache not saved: " + ex);
+        }
+    }
+
+    // written next to the file then moved over it, a crash midway leaves the previous cache
+    static void write(Path file, List<Contact> contacts) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path temporary = Files.createTempFile(parent, "roster", ".tmp");
+        long now = System.currentTimeMillis();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(contacts.size());
+            for (Contact contact : contacts) {
+                byte[] address = contact.getAddress().getAddress();
+                boolean stale = contact.isStale();
+                User.Status status = stale ? contact.getCachedStatus() : contact.getStatus();
+                out.writeByte(address.length);
+                out.write(address);
+                out.writeUTF(contact.getUsername());
+                out.writeByte(status.ordinal());
+                // whoever is still around is seen right now
+                out.writeLong(!stale && status != User.Status.OFFLINE ? now : contact.getLastSeen());
+            }
+        }
+        try {
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    // stale contacts, that ContactList.restore takes in
+    static List<Contact> read(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC) throw new IOException("Not a roster cache: " + file);
+            int count = in.readInt();
+            if (count < 0) throw new IOException("Corrupted roster cache: " + file);
+            List<Contact> contacts = new ArrayList<>(Math.min(count, 1 << 16));
+            for (int i = 0; i < count; i++) {
+                byte[] address = new byte[in.readUnsignedByte()];
+                in.readFully(address);
+                String username = in.readUTF();
+                int status = in.readUnsignedByte();
+                long lastSeen = in.readLong();
+                if (status >= STATUSES.length) throw new IOException("Corrupted roster cache: " + file);
+                Contact contact = new Contact(username, InetAddress.getByAddress(address)); // never looked up
+                contact.setCachedStatus(STATUSES[status]);
+                contact.setStatus(User.Status.OFFLINE);
+                contact.setLastSeen(lastSeen);
+                contacts.add(contact);
+            }
+            return contacts;
+        }
+    }
+
+}
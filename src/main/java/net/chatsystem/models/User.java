@@ -56,11 +56,11 @@ public class User {
         return this.username;
     }
 
-    public synchronized InetAddress getAddress() {
+    public InetAddress getAddress() {
         return Network.getLocalAddress();
     }
 
-    public synchronized String getPrintableName() {
+    public String getPrintableName() {
         String IP = getAddress().toString();
         return CommandLine.FG_WHITE + getUsername() + CommandLine.FG_CYAN + "@" + IP;
     }
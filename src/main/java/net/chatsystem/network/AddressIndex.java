@@ -0,0 +1,179 @@
+package net.chatsystem.network;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Values by peer address, for the lookups made on every packet: IPv4 addresses are kept as their packed int
+ * in an open addressing table (linear probing, backward shift deletion), so a lookup neither hashes an
+ * InetAddress nor boxes anything. Other addresses, IPv6 ones, go to a plain map beside it.
+ * Not thread safe: an index shared between threads is confined to one writer and published as a copy().
+ */
+public final class AddressIndex<V> {
+
+    private static final int MIN_CAPACITY = 16; // a power of two, the table is at most half full
+
+    // Inet4Address.hashCode() is the packed address in every JDK, checked once rather than relied upon
+    private static final boolean HASH_IS_ADDRESS = hashIsAddress();
+
+    private int[] keys;
+    private Object[] values; // a null value marks a free slot, so every int is a valid key
+    private int size;
+    private Map<InetAddress, V> others; // created on the first address that is not IPv4
+
+    public AddressIndex() {
+        keys = new int[MIN_CAPACITY];
+        values = new Object[MIN_CAPACITY];
+    }
+
+    private AddressIndex(AddressIndex<V> from) {
+        keys = from.keys.clone();
+        values = from.values.clone();
+        size = from.size;
+        others = from.others == null ? null : new HashMap<>(from.others);
+    }
+
+    // null when there is none
+    @SuppressWarnings("unchecked")
+    public V get(InetAddress address) {
+        if (!(address instanceof Inet4Address ipv4)) return address == null || others == null ? null : others.get(address);
+        int key = key(ipv4);
+        int mask = keys.length - 1;
+        for (int slot = slot(key, mask); values[slot] != null; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) return (V) values[slot];
+        }
+        return null;
+    }
+
+    public boolean containsKey(InetAddress address) {
+        return get(address) != null;
+    }
+
+    // returns the previous value, null when there was none
+    @SuppressWarnings("unchecked")
+    public V put(InetAddress address, V value) {
+        Objects.requireNonNull(value);
+        if (!(address instanceof Inet4Address ipv4)) {
+            if (others == null) others = new HashMap<>();
+            return others.put(Objects.requireNonNull(address), value);
+        }
+        int key = key(ipv4);
+        int mask = keys.length - 1;
+        int slot = slot(key, mask);
+        for (; values[slot] != null; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                V previous = (V) values[slot];
+                values[slot] = value;
+                return previous;
+            }
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        if (++size * 2 > keys.length) resize(keys.length * 2);
+        return null;
+    }
+
+    // returns the removed value, null when there was none
+    public V remove(InetAddress address) {
+        if (!(address instanceof Inet4Address ipv4)) return address == null || others == null ? null : others.remove(address);
+        int slot = find(key(ipv4));
+        if (slot < 0) return null;
+        @SuppressWarnings("unchecked")
+        V removed = (V) values[slot];
+        delete(slot);
+        return removed;
+    }
+
+    // removes the entry only while it still maps to the given value
+    public boolean remove(InetAddress address, V value) {
+        if (!(address instanceof Inet4Address ipv4)) return address != null && others != null && others.remove(address, value);
+        int slot = find(key(ipv4));
+        if (slot < 0 || !Objects.equals(values[slot], value)) return false;
+        delete(slot);
+        return true;
+    }
+
+    public int size() {
+        return size + (others == null ? 0 : others.size());
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public void clear() {
+        Arrays.fill(values, null);
+        size = 0;
+        others = null;
+    }
+
+    public AddressIndex<V> copy() {
+        return new AddressIndex<>(this);
+    }
+
+    private int find(int key) {
+        int mask = keys.length - 1;
+        for (int slot = slot(key, mask); values[slot] != null; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) return slot;
+        }
+        return -1;
+    }
+
+    // shifts the entries that follow back into the hole, so that lookups never need tombstones
+    private void delete(int hole) {
+        int mask = keys.length - 1;
+        for (int slot = (hole + 1) & mask; values[slot] != null; slot = (slot + 1) & mask) {
+            int home = slot(keys[slot], mask);
+            // the entry may move back only if its home is not between the hole and where it sits
+            if (((slot - home) & mask) >= ((slot - hole) & mask)) {
+                keys[hole] = keys[slot];
+                values[hole] = values[slot];
+                hole = slot;
+            }
+        }
+        values[hole] = null;
+        size--;
+    }
+
+    private void resize(int capacity) {
+        int[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = new int[capacity];
+        values = new Object[capacity];
+        int mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldValues[i] == null) continue;
+            int slot = slot(oldKeys[i], mask);
+            while (values[slot] != null) slot = (slot + 1) & mask;
+            keys[slot] = oldKeys[i];
+            values[slot] = oldValues[i];
+        }
+    }
+
+    // addresses on a LAN differ in their last bits, which the multiplication spreads to the high ones
+    private static int slot(int key, int mask) {
+        int h = key * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    static int key(Inet4Address address) {
+        if (HASH_IS_ADDRESS) return address.hashCode();
+        byte[] bytes = address.getAddress();
+        return (bytes[0] & 0xFF) << 24 | (bytes[1] & 0xFF) << 16 | (bytes[2] & 0xFF) << 8 | (bytes[3] & 0xFF);
+    }
+
+    private static boolean hashIsAddress() {
+        try {
+            return InetAddress.getByAddress(new byte[] {(byte) 192, (byte) 168, 7, 42}).hashCode() == 0xC0A8072A
+                    && InetAddress.getByAddress(new byte[] {10, 0, 0, 1}).hashCode() == 0x0A000001;
+        } catch (UnknownHostException e) {
+            return false;
+        }
+    }
+
+}
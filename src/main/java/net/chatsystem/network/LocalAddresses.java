@@ -0,0 +1,77 @@
+package net.chatsystem.network;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.net.UnknownHostException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Addresses of this machine, enumerated once and refreshed on the {@link Scheduler} so that
+ * interfaces coming up or going down are picked up without walking them on every packet.
+ */
+public class LocalAddresses {
+
+    public static long REFRESH_PERIOD_MILLIS = 30_000;
+
+    private static final class Holder {
+        private static final LocalAddresses INSTANCE = new LocalAddresses();
+    }
+
+    public static LocalAddresses getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    // replaced as a whole on refresh, readers never lock
+    private record Snapshot(InetAddress primary, Set<InetAddress> all) {}
+
+    private volatile Snapshot snapshot;
+
+    private LocalAddresses() {
+        snapshot = enumerate();
+        Scheduler.getInstance().scheduleWithFixedDelay(this::refresh, REFRESH_PERIOD_MILLIS, REFRESH_PERIOD_MILLIS);
+    }
+
+    // first IPv4 address of an interface that is up and not loopback, the one peers know us by
+    public InetAddress getPrimary() {
+        return snapshot.primary();
+    }
+
+    public Set<InetAddress> getAll() {
+        return snapshot.all();
+    }
+
+    // whether the address belongs to any interface of this machine, loopback included
+    public boolean isLocal(InetAddress address) {
+        return address != null && snapshot.all().contains(address);
+    }
+
+    public void refresh() {
+        try {
+            snapshot = enumerate();
+        } catch (RuntimeException ignored) {} // keep the last known addresses
+    }
+
+    private static Snapshot enumerate() {
+        try {
+            InetAddress primary = null;
+            Set<InetAddress> all = new HashSet<>();
+            for (NetworkInterface iface : Collections.list(NetworkInterface.getNetworkInterfaces())) {
+                if (!iface.isUp()) continue;
+                for (InetAddress addr : Collections.list(iface.getInetAddresses())) {
+                    all.add(addr);
+                    if (primary == null && !iface.isLoopback() && addr instanceof Inet4Address) primary = addr;
+                }
+            }
+            if (primary == null) primary = InetAddress.getLocalHost();
+            all.add(primary);
+            return new Snapshot(primary, Set.copyOf(all));
+        } catch (SocketException | UnknownHostException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+}
@@ -1,34 +1,24 @@
 package net.chatsystem.network;
 
-import java.net.Inet4Address;
 import java.net.InetAddress;
-import java.net.NetworkInterface;
-import java.util.Enumeration;
+import java.net.UnknownHostException;
 
 public class Network {
 
+    // cached, see LocalAddresses
     public static InetAddress getLocalAddress() {
-        try {
-            Enumeration<NetworkInterface> interfaces = NetworkInterface.getNetworkInterfaces();
-
-            while (interfaces.hasMoreElements()) {
-                NetworkInterface iface = interfaces.nextElement();
-                if (iface.isLoopback() || !iface.isUp()) continue; // skip loopback / down
+        return LocalAddresses.getInstance().getPrimary();
+    }
 
-                Enumeration<InetAddress> addresses = iface.getInetAddresses();
-                while (addresses.hasMoreElements()) {
-                    InetAddress addr = addresses.nextElement();
-                    if (addr instanceof Inet4Address) { // only IPv4
-                        return addr;
-                    }
-                }
-            }
+    public static boolean isLocalAddress(InetAddress address) {
+        return LocalAddresses.getInstance().isLocal(address);
+    }
 
-            return InetAddress.getLocalHost();
-        } catch (Exception e) {
-            throw new RuntimeException(e);
-        }
+    // a textual IPv4 or IPv6 address read off the network, getByName would look a host name up
+    public static InetAddress parseLiteral(String address) throws UnknownHostException {
+        boolean ipv4 = address.chars().allMatch(c -> c == '.' || Character.isDigit(c));
+        if (!ipv4 && address.indexOf(':') < 0) throw new UnknownHostException(address);
+        return InetAddress.getByName(address);
     }
 
 }
-
@@ -0,0 +1,52 @@
+package net.chatsystem.network;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single timer thread for every protocol deadline (login and username confirmations, refreshes, retries...),
+ * so that scheduling something never starts a thread. Tasks run on that thread and must stay short,
+ * anything slow has to be handed off. The returned futures cancel their task.
+ */
+public class Scheduler {
+
+    private static final class Holder {
+        private static final Scheduler INSTANCE = new Scheduler();
+    }
+
+    public static Scheduler getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    private final ScheduledThreadPoolExecutor executor;
+
+    private Scheduler() {
+        executor = new ScheduledThreadPoolExecutor(1, task -> {
+            Thread thread = new Thread(task, "protocol-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.setRemoveOnCancelPolicy(true); // cancelled deadlines don't pile up in the queue
+    }
+
+    public ScheduledFuture<?> schedule(Runnable task, long delayMillis) {
+        return executor.schedule(guarded(task), delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public ScheduledFuture<?> scheduleWithFixedDelay(Runnable task, long initialDelayMillis, long delayMillis) {
+        return executor.scheduleWithFixedDelay(guarded(task), initialDelayMillis, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // a periodic task that throws would silently never run again
+    private static Runnable guarded(Runnable task) {
+        return () -> {
+            try {
+                task.run();
+            } catch (RuntimeException exception) {
+                System.out.println("Scheduled task failed: " + exception);
+            }
+        };
+    }
+
+}
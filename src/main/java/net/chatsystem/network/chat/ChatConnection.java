@@ -0,0 +1,89 @@
+package net.chatsystem.network.chat;
+
+import net.chatsystem.models.Contact;
+import net.chatsystem.network.messages.Message;
+import net.chatsystem.network.messages.WireFormat;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * One chat link with a remote peer, as seen by the {@link ChatServer}.
+ * Engines provide the actual transport, the server only deals with this class.
+ * Outgoing messages go through the connection's own bounded queue, so a slow peer only ever delays itself.
+ */
+public abstract class ChatConnection {
+
+    public static final int WRITE_BUFFER_SIZE = 64 * 1024;
+    static final int MAX_FRAME_LENGTH = 1024 * 1024;
+
+    protected final ChatServer server;
+    protected final InetAddress address;
+    protected final OutboundQueue outbound = new OutboundQueue(ChatServer.OUTBOUND_QUEUE_CAPACITY, ChatServer.OVERFLOW_POLICY);
+    protected final FlushPolicy flushPolicy = ChatServer.FLUSH_POLICY;
+
+    boolean identified = false; // whether the user has sent a CHAT_IDENTIFY packet
+    Contact contact = null; // associated contact with this connection
+    volatile Set<ChatFeature> peerFeatures = Set.of(); // what the peer announced it understands
+
+    protected ChatConnection(ChatServer server, InetAddress address) {
+        this.server = server;
+        this.address = address;
+    }
+
+    protected ChatConnection(ChatServer server, InetAddress address, Contact contact) {
+        this(server, address);
+        this.identified = true;
+        this.contact = contact;
+    }
+
+    public InetAddress getAddress() {
+        return address;
+    }
+
+    public Contact getContact() {
+        return contact;
+    }
+
+    // queues the message, the returned future completes once it has been written to the peer
+    public CompletableFuture<Void> send(Message message) {
+        CompletableFuture<Void> delivery = outbound.offer(message, mayBlock());
+        wakeWriter();
+        return delivery;
+    }
+
+    // whether the calling thread may wait for room in the outbound queue
+    protected boolean mayBlock() {
+        return true;
+    }
+
+    // lets the writer know there is something new in the outbound queue
+    protected void wakeWriter() {}
+
+    // the newest format the peer announced it reads
+    protected WireFormat wireFormat() {
+        return peerFeatures.contains(ChatFeature.WIRE_V2) ? WireFormat.V2 : WireFormat.V1;
+    }
+
+    // frames for a burst of queued messages, packed in a single batch when the peer can unpack it
+    protected List<byte[]> encode(List<OutboundQueue.Pending> burst) {
+        WireFormat format = wireFormat();
+        if (burst.size() > 1 && peerFeatures.contains(ChatFeature.BATCH)) {
+            List<Message> messages = new ArrayList<>(burst.size());
+            for (OutboundQueue.Pending pending : burst) messages.add(pending.message());
+            return List.of(Message.toBatchFrame(messages, format));
+        }
+        List<byte[]> frames = new ArrayList<>(burst.size());
+        for (OutboundQueue.Pending pending : burst) frames.add(pending.message().toFrame(format));
+        return frames;
+    }
+
+    public abstract void close() throws IOException;
+
+    public abstract boolean isClosed();
+
+}
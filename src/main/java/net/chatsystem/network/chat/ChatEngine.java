@@ -0,0 +1,25 @@
+package net.chatsystem.network.chat;
+
+import net.chatsystem.models.Contact;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Transport behind the {@link ChatServer}: accepts incoming chat links,
+ * opens outgoing ones and feeds received messages back to the server.
+ */
+public interface ChatEngine {
+
+    void bind(int port) throws IOException;
+
+    // runs the accept (or event) loop on the calling thread until stop() is called
+    void serve() throws IOException;
+
+    // starts connecting without blocking the caller, the future fails if the peer is not reachable in time
+    CompletableFuture<ChatConnection> connect(InetSocketAddress address, Contact contact, int timeoutMillis);
+
+    void stop();
+
+}
@@ -0,0 +1,33 @@
+package net.chatsystem.network.chat;
+
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Optional protocol features, announced in the content of CHAT_IDENTIFY.
+ * Older peers send an empty content and ignore ours, so they are never sent anything they can't read.
+ */
+public enum ChatFeature {
+
+    BATCH, // several messages packed in a single CHAT_BATCH frame
+    WIRE_V2; // frames in WireFormat.V2 rather than V1
+
+    public static final Set<ChatFeature> SUPPORTED = EnumSet.allOf(ChatFeature.class);
+
+    public static String encode(Set<ChatFeature> features) {
+        return features.stream().map(Enum::name).collect(Collectors.joining(" "));
+    }
+
+    // unknown features (from newer peers) are skipped
+    public static Set<ChatFeature> decode(String content) {
+        Set<ChatFeature> features = EnumSet.noneOf(ChatFeature.class);
+        for (String token : content.trim().split("\\s+")) {
+            try {
+                features.add(ChatFeature.valueOf(token));
+            } catch (IllegalArgumentException ignored) {}
+        }
+        return features;
+    }
+
+}
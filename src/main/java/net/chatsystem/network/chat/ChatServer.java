@@ -1,26 +1,26 @@
 package net.chatsystem.network.chat;
 
 import net.chatsystem.models.Contact;
+import net.chatsystem.network.AddressIndex;
 import net.chatsystem.network.exceptions.InvalidMessageException;
 import net.chatsystem.network.exceptions.UnableToStartChatException;
 import net.chatsystem.network.exceptions.UnknownRecipientException;
 import net.chatsystem.network.exceptions.UnknownSenderException;
 import net.chatsystem.network.messages.Message;
 import net.chatsystem.network.messages.MessageBuilder;
+import net.chatsystem.observer.EventBus;
+import net.chatsystem.observer.EventKind;
 import net.chatsystem.observer.IObserver;
 
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
+import java.nio.ByteBuffer;
 import java.util.Map;
-import java.util.concurrent.ExecutorService;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 
 public class ChatServer extends Thread {
@@ -31,11 +31,32 @@ public class ChatServer extends Thread {
         return instance;
     }
 
+    public enum Engine {
+        THREAD_POOL,     // one blocking reader thread per connection
+        VIRTUAL_THREADS, // the same, on virtual threads
+        SELECTOR         // single NIO selector loop for every connection
+    }
+
+    // engine used by bind(), chosen at startup
+    public static Engine ENGINE = Engine.THREAD_POOL;
+
+    // how many messages may wait for a slow peer, and what to do when that is exceeded;
+    // sends come from the UI thread, so by default they fail instead of waiting (BLOCK is opt-in)
+    public static int OUTBOUND_QUEUE_CAPACITY = 256;
+    public static OutboundQueue.OverflowPolicy OVERFLOW_POLICY = OutboundQueue.OverflowPolicy.FAIL_FAST;
+
+    // when connections push their buffered messages to the network
+    public static FlushPolicy FLUSH_POLICY = FlushPolicy.IMMEDIATE;
+
+    // how long to wait for a contact to accept a chat before giving up, in milliseconds
+    public static int CONNECT_TIMEOUT = 3000;
 
-    private ServerSocket serverSocket;
-    private final ExecutorService pool = Executors.newCachedThreadPool();
-    private final List<IObserver> observers = new ArrayList<>();
-    private final Map<InetAddress, Socket> socketMap = new HashMap<>();
+    private ChatEngine engine;
+    private final EventBus events = new EventBus(); // observers are never called on the engine threads
+    // read on every send without locking, connections come and go rarely: copied on write, under its monitor
+    private volatile AddressIndex<ChatConnection> socketMap = new AddressIndex<>();
+    private final Object socketMapLock = new Object();
+    private final Map<InetAddress, CompletableFuture<Void>> pendingConnects = new ConcurrentHashMap<>();
     public int LISTEN_PORT = 2500;
     private volatile boolean running = true;
 
@@ -43,21 +64,27 @@ public class ChatServer extends Thread {
         setDaemon(true);
     }
 
-    public synchronized void addObserver(IObserver o) {
-        observers.add(o);
+    public void addObserver(IObserver o) {
+        events.subscribe(o);
+    }
+
+    public EventBus getEvents() {
+        return events;
     }
 
     public void bind() throws IOException {
-        this.serverSocket = new ServerSocket(LISTEN_PORT);
+        this.engine = switch (ENGINE) {
+            case THREAD_POOL -> new SocketChatEngine(this, Executors.newCachedThreadPool());
+            case VIRTUAL_THREADS -> new SocketChatEngine(this, Executors.newVirtualThreadPerTaskExecutor());
+            case SELECTOR -> new SelectorChatEngine(this);
+        };
+        engine.bind(LISTEN_PORT);
     }
 
     @Override
     public void run() {
         try {
-            while (running) {
-                Socket s = serverSocket.accept();
-                pool.submit(new ClientHandler(s));
-            }
+            engine.serve();
         } catch (IOException e) {
             if (running) e.printStackTrace();
         }
@@ -65,119 +92,133 @@ public class ChatServer extends Thread {
 
     public void stopServer() {
         running = false;
-        try {
-            serverSocket.close();
-        } catch (IOException ignored) {
+        engine.stop();
+    }
+
+    // opens a chat with the contact, several connects can be in flight at once and none of them holds the server
+    public CompletableFuture<Void> initiateChat(Contact contact) {
+        InetAddress address = contact.getAddress();
+        // look for contact in socket map, if found, we already have a connection for this contact
+        if (socketMap.containsKey(address)) return CompletableFuture.completedFuture(null);
+
+        // otherwise initiate connection with contact, unless someone already is
+        CompletableFuture<Void> connecting = pendingConnects.computeIfAbsent(address, ip -> engine
+                .connect(new InetSocketAddress(ip, LISTEN_PORT), contact, CONNECT_TIMEOUT)
+                .thenAccept(connection -> {
+                    putConnection(ip, connection);
+                    // the connection runs before it is registered, if it already closed it had nothing to remove
+                    if (connection.isClosed()) {
+                        removeConnection(ip, connection);
+                        throw new CompletionException(new IOException("Connection closed"));
+                    }
+                    // identify
+                    Message identify = new MessageBuilder()
+                            .setRecipient(contact)
+                            .setType(Message.Type.CHAT_IDENTIFY)
+                            .setContent(ChatFeature.encode(ChatFeature.SUPPORTED))
+                            .build();
+                    connection.send(identify);
+                }));
+        connecting.whenComplete((ok, failure) -> pendingConnects.remove(address, connecting));
+
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        connecting.whenComplete((ok, failure) -> {
+            if (failure == null) result.complete(null);
+            else result.completeExceptionally(new UnableToStartChatException(
+                    failure instanceof CompletionException ? failure.getCause() : failure));
+        });
+        return result;
+    }
+
+    private void putConnection(InetAddress address, ChatConnection connection) {
+        synchronized (socketMapLock) {
+            AddressIndex<ChatConnection> connections = socketMap.copy();
+            connections.put(address, connection);
+            socketMap = connections;
         }
-        pool.shutdownNow();
-    }
-
-    public synchronized void initiateChat(Contact contact) throws UnableToStartChatException, UnknownRecipientException {
-        // look for contact in socket map, if not found, initiate connection with contact
-        if (!socketMap.containsKey(contact.getAddress())) {
-            // initiate connection
-            Socket newSocket = new Socket();
-            try {
-                newSocket.connect(new InetSocketAddress(contact.getAddress(), LISTEN_PORT));
-            } catch (IOException ioException) {
-                throw new UnableToStartChatException(ioException);
-            }
-            socketMap.put(contact.getAddress(), newSocket);
-            pool.submit(new ClientHandler(newSocket, contact));
-            // identify
-            Message identify = new MessageBuilder()
-                    .setRecipient(contact)
-                    .setType(Message.Type.CHAT_IDENTIFY)
-                    .build();
-            try {
-                sendMessage(contact.getAddress(), identify);
-            } catch(IOException io) {
-                throw new UnableToStartChatException(io);
-            }
-        } // otherwise, we already have a client handler for the socket
     }
 
-    public synchronized boolean isChatOpen(Contact with) {
-        return socketMap.containsKey(with.getAddress());
+    // only while the address still maps to this connection, a newer one may have replaced it
+    private void removeConnection(InetAddress address, ChatConnection connection) {
+        synchronized (socketMapLock) {
+            AddressIndex<ChatConnection> connections = socketMap.copy();
+            if (connections.remove(address, connection)) socketMap = connections;
+        }
     }
 
-    public synchronized void sendMessage(InetAddress recipientIP, Message message) throws UnknownRecipientException, IOException {
-        if (!socketMap.containsKey(recipientIP)) throw new UnknownRecipientException(recipientIP);
-        Socket socket = socketMap.get(recipientIP);
-        byte[] buffer = message.toBuffer();
-        DataOutputStream out = new DataOutputStream(socket.getOutputStream());
-        out.writeInt(buffer.length);
-        out.write(buffer);
-        out.flush();
+    public boolean isChatOpen(Contact with) {
+        return socketMap.containsKey(with.getAddress());
     }
 
-    public synchronized void stopChat(Contact with) throws UnknownRecipientException, IOException {
-        if (!socketMap.containsKey(with.getAddress())) throw new UnknownRecipientException(with.getAddress());
-        Socket socket = socketMap.get(with.getAddress());
-        socket.close();
+    // never waits on the network: the message is queued on the recipient's connection,
+    // the returned future completes once it has been written, or fails if it could not be
+    public CompletableFuture<Void> sendMessage(InetAddress recipientIP, Message message) throws UnknownRecipientException {
+        ChatConnection connection = socketMap.get(recipientIP);
+        if (connection == null) throw new UnknownRecipientException(recipientIP);
+        return connection.send(message);
     }
 
-    private class ClientHandler implements Runnable {
-        private final Socket socket;
+    public void stopChat(Contact with) throws UnknownRecipientException, IOException {
+        ChatConnection connection = socketMap.get(with.getAddress());
+        if (connection == null) throw new UnknownRecipientException(with.getAddress());
+        connection.close();
+    }
 
-        ClientHandler(Socket socket) {
-            this.socket = socket;
+    // called by the engines for every frame received on a connection, batches are dispatched message by message
+    // the frame's buffer is reused once this returns, so messages only live for the duration of the dispatch
+    void handleFrame(ChatConnection connection, ByteBuffer frame) throws InvalidMessageException, UnknownSenderException {
+        if (Message.peekType(frame) == Message.Type.CHAT_BATCH) {
+            for (Message msg : Message.parseBatch(frame, connection.address)) {
+                handleMessage(connection, msg);
+            }
+            return;
         }
+        handleMessage(connection, Message.parse(frame, connection.address));
+    }
 
-        ClientHandler(Socket socket, Contact contact) {
-            this.socket = socket;
-            this.identified = true;
-            this.contact = contact;
+    private void handleMessage(ChatConnection connection, Message msg) throws UnknownSenderException {
+        if (events.hasSubscribers(EventKind.MESSAGE)) {
+            Message kept = msg.detach(); // delivered after the frame's buffer is reused
+            events.publish(EventKind.MESSAGE, o -> o.onMessage(kept));
         }
-
-        boolean identified = false; // whether the user has sent a CHAT_IDENTIFY packet
-        Contact contact = null; // associated contact with this socket
-
-        @Override
-        public void run() {
-            try (DataInputStream in = new DataInputStream(socket.getInputStream())) {
-                while (!socket.isClosed() && running) {
-                    int length;
-                    length = in.readInt();
-                    if (length <= 0) break;
-                    byte[] buf = in.readNBytes(length);
-                    Message msg = Message.parse(buf, length, socket.getInetAddress());
-                    for (IObserver o : observers) o.onMessage(msg);
-                    handleMessage(msg);
+        switch(msg.getType()) {
+            case CHAT_IDENTIFY -> {
+                Set<ChatFeature> features = ChatFeature.decode(msg.getContent());
+                connection.peerFeatures = features;
+                // on a connection we opened, this is the peer answering with its own features
+                if (connection.identified) break;
+
+                Contact contact = msg.getSender();
+                connection.identified = true;
+                connection.contact = contact;
+                putConnection(msg.getAddress(), connection);
+                events.publish(EventKind.CHAT_INITIATE, o -> o.onChatInitiate(contact));
+                // a peer announcing features wants ours back, older peers announce nothing and get nothing
+                if (!features.isEmpty()) {
+                    connection.send(new MessageBuilder()
+                            .setRecipient(connection.contact)
+                            .setType(Message.Type.CHAT_IDENTIFY)
+                            .setContent(ChatFeature.encode(ChatFeature.SUPPORTED))
+                            .build());
                 }
-            } catch (IOException | InvalidMessageException | UnknownSenderException ignored) {
-            } finally {
-                try {
-                    if (identified) {
-                        socketMap.remove(this.contact.getAddress());
-                    }
-                    if (!socket.isClosed()) {
-                        for(IObserver o : observers) {
-                            o.onChatClose(this.contact);
-                        }
-                        socket.close();
-                    }
-                } catch (IOException ignored) {}
             }
+            case CHAT_MESSAGE -> {
+                Contact from = connection.contact;
+                String chat = msg.getContent(); // decoded now, the frame's buffer is reused
+                events.publish(EventKind.CHAT_MESSAGE, o -> o.onChatMessage(from, chat));
+            }
+            default ->  {}
         }
+    }
 
-        public void handleMessage(Message msg) throws UnknownSenderException {
-            switch(msg.getType()) {
-                case CHAT_IDENTIFY -> {
-                    this.identified = true;
-                    this.contact = msg.getSender();
-                    socketMap.put(msg.getAddress(), this.socket);
-                    for(IObserver o : observers) {
-                        o.onChatInitiate(this.contact);
-                    }
-                }
-                case CHAT_MESSAGE -> {
-                    for(IObserver o : observers) {
-                        o.onChatMessage(this.contact, msg.getContent());
-                    }
-                }
-                default ->  {}
-            }
+    // called by the engines once a connection is gone, remote is true when the peer ended it
+    void connectionClosed(ChatConnection connection, boolean remote) {
+        if (connection.identified) {
+            removeConnection(connection.contact.getAddress(), connection);
+        }
+        Contact contact = connection.contact;
+        if (remote && contact != null) {
+            events.publish(EventKind.CHAT_CLOSE, o -> o.onChatClose(contact));
         }
     }
-}
\ No newline at end of file
+}
@@ -8,6 +8,7 @@ import net.chatsystem.network.messages.Message;
 import net.chatsystem.network.messages.MessageBuilder;
 
 import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
 
 public class ChatSession {
 
@@ -17,31 +18,36 @@ public class ChatSession {
         this.recipient = with;
     }
 
-    public void attemptOpen() throws RecipientOfflineException {
+    // completes once the chat is open, fails with a RecipientOfflineException if the recipient can't be reached
+    public CompletableFuture<Void> attemptOpen() {
         if (recipient.getStatus() == Contact.Status.OFFLINE) {
-            throw new RecipientOfflineException();
-        }
-        try {
-            ChatServer.getInstance().initiateChat(recipient);
-        } catch(Exception e) {
-            throw new RecipientOfflineException();
+            return CompletableFuture.failedFuture(new RecipientOfflineException());
         }
+        CompletableFuture<Void> opened = new CompletableFuture<>();
+        ChatServer.getInstance().initiateChat(recipient).whenComplete((ok, exception) -> {
+            if (exception == null) opened.complete(null);
+            else opened.completeExceptionally(new RecipientOfflineException());
+        });
+        return opened;
     }
 
     public boolean isOpen() {
         return ChatServer.getInstance().isChatOpen(recipient);
     }
 
-    public void send(String chat) throws UnknownRecipientException, ChatException {
+    // completes once the message is written, fails with a ChatException if it could not be
+    public CompletableFuture<Void> send(String chat) throws UnknownRecipientException {
         Message msg = new MessageBuilder()
                 .setRecipient(this.recipient)
                 .setType(Message.Type.CHAT_MESSAGE)
+                .setTimestamp(System.currentTimeMillis())
                 .setContent(chat).build();
-        try {
-            ChatServer.getInstance().sendMessage(this.recipient.getAddress(), msg);
-        } catch(IOException exception) {
-            throw new ChatException(exception);
-        }
+        CompletableFuture<Void> delivery = new CompletableFuture<>();
+        ChatServer.getInstance().sendMessage(this.recipient.getAddress(), msg).whenComplete((ok, exception) -> {
+            if (exception == null) delivery.complete(null);
+            else delivery.completeExceptionally(new ChatException(exception));
+        });
+        return delivery;
     }
 
     public void close() throws UnknownRecipientException, ChatException {
@@ -0,0 +1,27 @@
+package net.chatsystem.network.chat;
+
+/**
+ * When a connection pushes its buffered frames to the socket.
+ * Writers always put every message that is already queued in the same flush,
+ * coalescing additionally waits up to maxDelayMicros for more messages to join it,
+ * unless maxBytes are already buffered.
+ */
+public record FlushPolicy(long maxDelayMicros, int maxBytes) {
+
+    // flush as soon as nothing else is queued
+    public static final FlushPolicy IMMEDIATE = new FlushPolicy(0, ChatConnection.WRITE_BUFFER_SIZE);
+
+    public FlushPolicy {
+        if (maxDelayMicros < 0) throw new IllegalArgumentException("Delay cannot be negative");
+        if (maxBytes <= 0) throw new IllegalArgumentException("Byte limit must be positive");
+    }
+
+    public static FlushPolicy coalesce(long maxDelayMicros, int maxBytes) {
+        return new FlushPolicy(maxDelayMicros, maxBytes);
+    }
+
+    public boolean coalesces() {
+        return maxDelayMicros > 0;
+    }
+
+}
@@ -0,0 +1,134 @@
+package net.chatsystem.network.chat;
+
+import net.chatsystem.network.exceptions.OutboundQueueFullException;
+import net.chatsystem.network.messages.Message;
+import net.chatsystem.network.messages.WireFormat;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded queue of the messages waiting to be written on one connection.
+ * Each queued message carries the future completed once it has been written (or failed).
+ */
+public class OutboundQueue {
+
+    public enum OverflowPolicy {
+        BLOCK,       // wait until the writer makes room
+        DROP_OLDEST, // drop the oldest queued message to make room
+        FAIL_FAST    // reject the new message
+    }
+
+    public record Pending(Message message, CompletableFuture<Void> delivery) {}
+
+    private final ArrayDeque<Pending> queue = new ArrayDeque<>();
+    private final int capacity;
+    private final OverflowPolicy policy;
+    private boolean closed = false;
+
+    public OutboundQueue(int capacity, OverflowPolicy policy) {
+        if (capacity <= 0) throw new IllegalArgumentException("Capacity must be positive");
+        this.capacity = capacity;
+        this.policy = policy;
+    }
+
+    /**
+     * Queues a message, applying the overflow policy if the queue is full.
+     * When mayBlock is false (e.g. on an event loop thread), BLOCK behaves like FAIL_FAST.
+     */
+    public CompletableFuture<Void> offer(Message message, boolean mayBlock) {
+        CompletableFuture<Void> delivery = new CompletableFuture<>();
+        OverflowPolicy effective = policy == OverflowPolicy.BLOCK && !mayBlock ? OverflowPolicy.FAIL_FAST : policy;
+        Pending dropped = null;
+        boolean rejected;
+
+        // futures are completed outside the lock, their callbacks may very well send again
+        synchronized (this) {
+            while (!closed && queue.size() >= capacity) {
+                if (effective == OverflowPolicy.FAIL_FAST) {
+                    delivery.completeExceptionally(new OutboundQueueFullException());
+                    return delivery;
+                }
+                if (effective == OverflowPolicy.DROP_OLDEST) {
+                    dropped = queue.poll();
+                    break;
+                }
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    delivery.completeExceptionally(e);
+                    return delivery;
+                }
+            }
+            rejected = closed;
+            if (!rejected) {
+                queue.add(new Pending(message, delivery));
+                notifyAll();
+            }
+        }
+
+        if (rejected) delivery.completeExceptionally(new IOException("Connection closed"));
+        if (dropped != null) dropped.delivery().completeExceptionally(new OutboundQueueFullException());
+        return delivery;
+    }
+
+    // next message to write, or null if there is none right now
+    public synchronized Pending poll() {
+        Pending next = queue.poll();
+        if (next != null) notifyAll();
+        return next;
+    }
+
+    // next message to write, waits at most the given time for one, null if none came (or the queue is closed)
+    public synchronized Pending poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        long remaining;
+        while (queue.isEmpty() && !closed && (remaining = deadline - System.nanoTime()) > 0) {
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return poll();
+    }
+
+    // next message to write, waits for one, returns null once the queue is closed
+    public synchronized Pending take() throws InterruptedException {
+        while (queue.isEmpty() && !closed) wait();
+        return poll();
+    }
+
+    // whether the queued messages take at least that many bytes once framed
+    public synchronized boolean holdsAtLeast(int bytes, WireFormat format) {
+        long queued = 0;
+        for (Pending pending : queue) {
+            queued += Integer.BYTES + pending.message().encodedLength(format);
+            if (queued >= bytes) return true;
+        }
+        return false;
+    }
+
+    public synchronized boolean isEmpty() {
+        return queue.isEmpty();
+    }
+
+    public synchronized int size() {
+        return queue.size();
+    }
+
+    // fails every queued message and refuses new ones
+    public void close(Throwable cause) {
+        List<Pending> failed;
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+            failed = new ArrayList<>(queue);
+            queue.clear();
+            notifyAll();
+        }
+        for (Pending pending : failed) pending.delivery().completeExceptionally(cause);
+    }
+
+}
@@ -0,0 +1,173 @@
+package net.chatsystem.network.chat;
+
+import net.chatsystem.models.Contact;
+import net.chatsystem.network.exceptions.InvalidMessageException;
+import net.chatsystem.network.exceptions.UnknownSenderException;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Connection driven by the {@link SelectorChatEngine} loop. Incoming bytes are
+ * accumulated until a whole length-prefixed frame is available, the outbound queue
+ * is drained whenever the channel is writable.
+ */
+class SelectorChatConnection extends ChatConnection {
+
+    private static final int READ_BUFFER_SIZE = 8 * 1024;
+
+    final SocketChannel channel;
+    SelectionKey key;
+
+    private final SelectorChatEngine engine;
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+    private ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+
+    // messages being written and their frames, only touched by the loop thread
+    private final List<OutboundQueue.Pending> writing = new ArrayList<>();
+    private ByteBuffer[] writingFrames;
+
+    // completed once an outgoing connection is established, already complete for accepted ones
+    final CompletableFuture<ChatConnection> connecting = new CompletableFuture<>();
+
+    SelectorChatConnection(ChatServer server, SelectorChatEngine engine, SocketChannel channel, InetAddress address) {
+        super(server, address);
+        this.engine = engine;
+        this.channel = channel;
+        connecting.complete(this);
+    }
+
+    SelectorChatConnection(ChatServer server, SelectorChatEngine engine, SocketChannel channel, InetAddress address, Contact contact) {
+        super(server, address, contact);
+        this.engine = engine;
+        this.channel = channel;
+    }
+
+    // called from the loop thread only
+    void onConnectable() {
+        try {
+            channel.finishConnect();
+        } catch (IOException ioException) {
+            connecting.completeExceptionally(ioException);
+            return;
+        }
+        key.interestOps(outbound.isEmpty() ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        connecting.complete(this);
+    }
+
+    // the connection never made it, nobody has to be told it closed
+    void abortConnect() {
+        if (!closed.compareAndSet(false, true)) return;
+        IOException cause = new IOException("Connection failed");
+        if (engine.isLoopThread()) shut(cause);
+        else engine.requestClose(this);
+        outbound.close(cause);
+    }
+
+    // called from the loop thread only
+    void onReadable() throws IOException, InvalidMessageException, UnknownSenderException {
+        if (channel.read(readBuffer) == -1) throw new EOFException();
+        readBuffer.flip();
+
+        while (readBuffer.remaining() >= Integer.BYTES) {
+            int length = readBuffer.getInt(readBuffer.position());
+            if (length <= 0 || length > MAX_FRAME_LENGTH) throw new EOFException("Invalid frame length " + length);
+            if (readBuffer.remaining() < Integer.BYTES + length) {
+                // frame is incomplete, make sure it will fit once the rest arrives
+                if (readBuffer.capacity() < Integer.BYTES + length) {
+                    ByteBuffer bigger = ByteBuffer.allocate(Integer.BYTES + length);
+                    bigger.put(readBuffer);
+                    readBuffer = bigger;
+                    return;
+                }
+                break;
+            }
+            readBuffer.getInt();
+            // handled in place, the frame is gone once the buffer is compacted
+            server.handleFrame(this, readBuffer.slice(readBuffer.position(), length));
+            readBuffer.position(readBuffer.position() + length);
+        }
+        readBuffer.compact();
+    }
+
+    // called from the loop thread only
+    void onWritable() throws IOException {
+        while (true) {
+            if (writing.isEmpty()) {
+                // every queued message (up to the policy's byte limit) goes out in a single gathering write
+                int bytes = 0;
+                OutboundQueue.Pending pending;
+                while (bytes < flushPolicy.maxBytes() && (pending = outbound.poll()) != null) {
+                    bytes += Integer.BYTES + pending.message().encodedLength(wireFormat());
+                    writing.add(pending);
+                }
+                if (writing.isEmpty()) break;
+                List<byte[]> frames = encode(writing);
+                writingFrames = new ByteBuffer[frames.size()];
+                for (int i = 0; i < writingFrames.length; i++) writingFrames[i] = ByteBuffer.wrap(frames.get(i));
+            }
+            channel.write(writingFrames);
+            if (writingFrames[writingFrames.length - 1].hasRemaining()) return; // socket buffer is full, wait for the next OP_WRITE
+            for (OutboundQueue.Pending written : writing) written.delivery().complete(null);
+            writing.clear();
+            writingFrames = null;
+        }
+        key.interestOps(SelectionKey.OP_READ);
+    }
+
+    void closeFromLoop() {
+        // the loop only gives up on a connection when the peer went away
+        closeChannel(true);
+    }
+
+    private void closeChannel(boolean remote) {
+        if (!closed.compareAndSet(false, true)) return;
+        IOException cause = new IOException("Connection closed");
+        // the channel and its key belong to the loop, closing it anywhere else could cancel the key under its feet
+        if (engine.isLoopThread()) shut(cause);
+        else engine.requestClose(this);
+        outbound.close(cause);
+        server.connectionClosed(this, remote);
+    }
+
+    // called from the loop thread only, or once the loop is gone
+    void shut(IOException cause) {
+        try {
+            channel.close();
+        } catch (IOException ignored) {}
+        // whatever the loop was in the middle of writing is its to fail
+        for (OutboundQueue.Pending interrupted : writing) interrupted.delivery().completeExceptionally(cause);
+        writing.clear();
+        writingFrames = null;
+    }
+
+    @Override
+    protected boolean mayBlock() {
+        // the loop is the one draining the queue, it must never wait for room in it
+        return !engine.isLoopThread();
+    }
+
+    @Override
+    protected void wakeWriter() {
+        engine.requestWrite(this);
+    }
+
+    @Override
+    public void close() {
+        closeChannel(false);
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed.get();
+    }
+
+}
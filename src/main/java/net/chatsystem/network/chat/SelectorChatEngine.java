@@ -0,0 +1,221 @@
+package net.chatsystem.network.chat;
+
+import net.chatsystem.models.Contact;
+import net.chatsystem.network.exceptions.InvalidMessageException;
+import net.chatsystem.network.exceptions.UnknownSenderException;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Non-blocking engine: every chat link is multiplexed on a single selector loop,
+ * so the number of threads does not grow with the number of open chats.
+ */
+public class SelectorChatEngine implements ChatEngine {
+
+    private final ChatServer server;
+    private Selector selector;
+    private ServerSocketChannel serverChannel;
+    private volatile boolean running = true;
+    private volatile Thread loopThread;
+    private volatile boolean stopped;
+
+    // channels can only be (re)registered from the loop thread, other threads queue their requests here
+    private final Queue<SelectorChatConnection> pendingRegistrations = new ConcurrentLinkedQueue<>();
+    private final Queue<SelectorChatConnection> pendingWrites = new ConcurrentLinkedQueue<>();
+    private final Queue<SelectorChatConnection> pendingCloses = new ConcurrentLinkedQueue<>();
+
+    // connections holding their writes back to coalesce them, with the time they must write by (loop thread only)
+    private final Map<SelectorChatConnection, Long> deferredWrites = new HashMap<>();
+
+    public SelectorChatEngine(ChatServer server) {
+        this.server = server;
+    }
+
+    @Override
+    public void bind(int port) throws IOException {
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    @Override
+    public void serve() throws IOException {
+        loopThread = Thread.currentThread();
+        try {
+            while (running) {
+                long timeout = nextDeferredWrite();
+                if (timeout < 0) selector.select();
+                else if (timeout == 0) selector.selectNow();
+                else selector.select(timeout);
+                processPending();
+                processDeferredWrites();
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) continue;
+
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+
+                    SelectorChatConnection connection = (SelectorChatConnection) key.attachment();
+                    if (key.isConnectable()) {
+                        connection.onConnectable();
+                        continue;
+                    }
+                    try {
+                        if (key.isReadable()) connection.onReadable();
+                        if (key.isValid() && key.isWritable()) connection.onWritable();
+                    } catch (IOException | InvalidMessageException | UnknownSenderException | CancelledKeyException e) {
+                        connection.closeFromLoop();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            if (running) throw e;
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                try {
+                    key.channel().close();
+                } catch (IOException ignored) {}
+            }
+            selector.close();
+            stopped = true;
+            processCloses();
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null) return;
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true); // batching is up to the flush policy, not Nagle
+        SelectorChatConnection connection = new SelectorChatConnection(server, this, channel, channel.socket().getInetAddress());
+        connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+    }
+
+    private void processPending() {
+        processCloses();
+        SelectorChatConnection connection;
+        while ((connection = pendingRegistrations.poll()) != null) {
+            try {
+                int ops = connection.channel.isConnected() ? SelectionKey.OP_READ : SelectionKey.OP_CONNECT;
+                connection.key = connection.channel.register(selector, ops, connection);
+            } catch (ClosedChannelException ignored) {}
+        }
+        while ((connection = pendingWrites.poll()) != null) {
+            SelectionKey key = connection.key;
+            // writes requested before the connection is established are picked up by onConnectable()
+            if (key != null && key.isValid() && connection.channel.isConnected()) {
+                FlushPolicy policy = connection.flushPolicy;
+                // held back for more to join, unless enough is queued already to flush
+                if (policy.coalesces() && !connection.outbound.holdsAtLeast(policy.maxBytes(), connection.wireFormat())) {
+                    deferredWrites.putIfAbsent(connection, System.nanoTime() + TimeUnit.MICROSECONDS.toNanos(policy.maxDelayMicros()));
+                } else {
+                    deferredWrites.remove(connection);
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                }
+            }
+        }
+    }
+
+    private void processCloses() {
+        SelectorChatConnection connection;
+        while ((connection = pendingCloses.poll()) != null) {
+            deferredWrites.remove(connection);
+            connection.shut(new IOException("Connection closed"));
+        }
+    }
+
+    private void processDeferredWrites() {
+        long now = System.nanoTime();
+        Iterator<Map.Entry<SelectorChatConnection, Long>> entries = deferredWrites.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<SelectorChatConnection, Long> entry = entries.next();
+            if (entry.getValue() - now > 0) continue;
+            entries.remove();
+            SelectionKey key = entry.getKey().key;
+            if (key.isValid()) key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+        }
+    }
+
+    // milliseconds until the next deferred write is due, -1 if there is none
+    private long nextDeferredWrite() {
+        if (deferredWrites.isEmpty()) return -1;
+        long now = System.nanoTime();
+        long next = Long.MAX_VALUE;
+        for (long deadline : deferredWrites.values()) next = Math.min(next, deadline - now);
+        // the selector only counts in milliseconds, so sub-millisecond delays are rounded up
+        return next <= 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(next + 999_999);
+    }
+
+    boolean isLoopThread() {
+        return Thread.currentThread() == loopThread;
+    }
+
+    void requestWrite(SelectorChatConnection connection) {
+        pendingWrites.add(connection);
+        selector.wakeup();
+    }
+
+    // a connection closed from another thread, the loop closes its channel and fails what it was writing
+    void requestClose(SelectorChatConnection connection) {
+        pendingCloses.add(connection);
+        if (stopped || selector == null) processCloses();
+        else selector.wakeup();
+    }
+
+    @Override
+    public CompletableFuture<ChatConnection> connect(InetSocketAddress address, Contact contact, int timeoutMillis) {
+        SelectorChatConnection connection;
+        try {
+            SocketChannel channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            connection = new SelectorChatConnection(server, this, channel, address.getAddress(), contact);
+            // finished by the loop on OP_CONNECT, unless the peer is local enough to accept right away
+            if (channel.connect(address)) connection.connecting.complete(connection);
+        } catch (IOException ioException) {
+            return CompletableFuture.failedFuture(ioException);
+        }
+        pendingRegistrations.add(connection);
+        selector.wakeup();
+
+        connection.connecting.orTimeout(timeoutMillis, TimeUnit.MILLISECONDS);
+        connection.connecting.whenComplete((ok, failure) -> {
+            if (failure != null) connection.abortConnect();
+        });
+        return connection.connecting;
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        try {
+            serverChannel.close();
+        } catch (IOException ignored) {
+        }
+        selector.wakeup();
+    }
+
+}
@@ -0,0 +1,126 @@
+package net.chatsystem.network.chat;
+
+import net.chatsystem.models.Contact;
+import net.chatsystem.network.exceptions.InvalidMessageException;
+import net.chatsystem.network.exceptions.UnknownSenderException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Connection over a blocking socket: run() is the reader loop, the outbound queue is drained
+ * by a writer task that is only handed to the executor while there is something to write.
+ */
+class SocketChatConnection extends ChatConnection implements Runnable {
+
+    private static final int READ_BUFFER_SIZE = 8 * 1024;
+
+    private final Socket socket;
+    private final OutputStream out; // only used by the writer
+    private final Executor writers;
+    private final AtomicBoolean writing = new AtomicBoolean(); // whether a writer is scheduled or running
+    private volatile boolean closedLocally = false;
+
+    SocketChatConnection(ChatServer server, Socket socket, Executor writers) throws IOException {
+        super(server, socket.getInetAddress());
+        this.socket = socket;
+        this.out = new BufferedOutputStream(socket.getOutputStream(), WRITE_BUFFER_SIZE);
+        this.writers = writers;
+    }
+
+    SocketChatConnection(ChatServer server, Socket socket, Contact contact, Executor writers) throws IOException {
+        super(server, socket.getInetAddress(), contact);
+        this.socket = socket;
+        this.out = new BufferedOutputStream(socket.getOutputStream(), WRITE_BUFFER_SIZE);
+        this.writers = writers;
+    }
+
+    @Override
+    public void run() {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()))) {
+            byte[] buf = new byte[READ_BUFFER_SIZE]; // reused for every frame, grown for bigger ones
+            while (!socket.isClosed()) {
+                int length;
+                length = in.readInt();
+                if (length <= 0 || length > MAX_FRAME_LENGTH) break;
+                if (length > buf.length) buf = new byte[length];
+                in.readFully(buf, 0, length);
+                server.handleFrame(this, ByteBuffer.wrap(buf, 0, length));
+            }
+        } catch (IOException | InvalidMessageException | UnknownSenderException ignored) {
+        } finally {
+            try {
+                // unless close() was called, the peer is the one who ended the chat
+                socket.close();
+            } catch (IOException ignored) {}
+            outbound.close(new IOException("Connection closed"));
+            server.connectionClosed(this, !closedLocally);
+        }
+    }
+
+    // at most one writer at a time, it keeps its thread only until the queue is empty
+    @Override
+    protected void wakeWriter() {
+        if (!writing.compareAndSet(false, true)) return;
+        try {
+            writers.execute(this::drain);
+        } catch (RejectedExecutionException exception) {
+            outbound.close(new IOException("Connection closed", exception)); // the engine is stopping
+        }
+    }
+
+    private void drain() {
+        List<OutboundQueue.Pending> unflushed = new ArrayList<>();
+        long maxDelay = TimeUnit.MICROSECONDS.toNanos(flushPolicy.maxDelayMicros());
+        try {
+            do {
+                OutboundQueue.Pending pending;
+                while ((pending = outbound.poll()) != null) {
+                    long deadline = System.nanoTime() + maxDelay;
+                    int buffered = 0;
+                    do {
+                        unflushed.add(pending);
+                        buffered += Integer.BYTES + pending.message().encodedLength(wireFormat());
+                        if (buffered >= flushPolicy.maxBytes()) break;
+                        pending = outbound.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    } while (pending != null);
+
+                    // each frame goes out in one write, the buffer turns the whole burst into a single flush
+                    for (byte[] frame : encode(unflushed)) out.write(frame);
+                    out.flush();
+                    for (OutboundQueue.Pending written : unflushed) written.delivery().complete(null);
+                    unflushed.clear();
+                }
+                writing.set(false);
+                // a message queued between the last poll and now found the writer still running, and didn't wake another
+            } while (!outbound.isEmpty() && writing.compareAndSet(false, true));
+        } catch (IOException exception) {
+            for (OutboundQueue.Pending failed : unflushed) failed.delivery().completeExceptionally(exception);
+            outbound.close(exception);
+        } catch (InterruptedException ignored) {
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        closedLocally = true;
+        socket.close();
+    }
+
+    @Override
+    public boolean isClosed() {
+        return socket.isClosed();
+    }
+
+}
@@ -0,0 +1,85 @@
+package net.chatsystem.network.chat;
+
+import net.chatsystem.models.Contact;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Blocking engine: one reader task per connection, and a writer task only while the connection has
+ * something to write, both submitted to the given pool.
+ */
+public class SocketChatEngine implements ChatEngine {
+
+    private final ChatServer server;
+    private final ExecutorService pool;
+    private ServerSocket serverSocket;
+    private volatile boolean running = true;
+
+    public SocketChatEngine(ChatServer server, ExecutorService pool) {
+        this.server = server;
+        this.pool = pool;
+    }
+
+    @Override
+    public void bind(int port) throws IOException {
+        this.serverSocket = new ServerSocket(port);
+    }
+
+    @Override
+    public void serve() throws IOException {
+        try {
+            while (running) {
+                Socket s = serverSocket.accept();
+                try {
+                    s.setTcpNoDelay(true); // batching is up to the flush policy, not Nagle
+                    start(new SocketChatConnection(server, s, pool));
+                } catch (IOException ignored) {
+                    s.close();
+                }
+            }
+        } catch (IOException e) {
+            if (running) throw e;
+        }
+    }
+
+    @Override
+    public CompletableFuture<ChatConnection> connect(InetSocketAddress address, Contact contact, int timeoutMillis) {
+        // the blocking connect happens on the pool, so several contacts can be reached at once
+        return CompletableFuture.supplyAsync(() -> {
+            Socket newSocket = new Socket();
+            try {
+                newSocket.setTcpNoDelay(true);
+                newSocket.connect(address, timeoutMillis);
+                SocketChatConnection connection = new SocketChatConnection(server, newSocket, contact, pool);
+                start(connection);
+                return connection;
+            } catch (IOException ioException) {
+                try {
+                    newSocket.close();
+                } catch (IOException ignored) {}
+                throw new CompletionException(ioException);
+            }
+        }, pool);
+    }
+
+    private void start(SocketChatConnection connection) {
+        pool.submit(connection);
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        try {
+            serverSocket.close();
+        } catch (IOException ignored) {
+        }
+        pool.shutdownNow();
+    }
+
+}
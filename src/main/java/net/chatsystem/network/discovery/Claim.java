@@ -0,0 +1,47 @@
+package net.chatsystem.network.discovery;
+
+/**
+ * Lamport time and node id of a login, so that two peers claiming the same username at the same time
+ * agree on the winner in one round: the earlier claim, or the lower node id when the clocks are equal.
+ * It rides at the end of the DISCOVER_ME username as control characters, which older peers trim away.
+ */
+record Claim(int time, int node) implements Comparable<Claim> {
+
+    private static final int NIBBLES = 16;
+    private static final char ZERO = '\u0010'; // nibbles are 0x10..0x1F, apart from the version advertisement
+
+    @Override
+    public int compareTo(Claim other) {
+        int byTime = Integer.compare(time, other.time);
+        return byTime != 0 ? byTime : Integer.compare(node, other.node);
+    }
+
+    static String append(String username, Claim claim) {
+        StringBuilder builder = new StringBuilder(username.length() + NIBBLES).append(username);
+        long bits = ((long) claim.time << 32) | (claim.node & 0xFFFFFFFFL);
+        for (int shift = 60; shift >= 0; shift -= 4) builder.append((char) (ZERO + ((bits >>> shift) & 0xF)));
+        return builder.toString();
+    }
+
+    // null when the username carries no claim, as from older peers
+    static Claim of(String username) {
+        if (!carries(username)) return null;
+        long bits = 0;
+        for (int i = username.length() - NIBBLES; i < username.length(); i++) bits = (bits << 4) | (username.charAt(i) - ZERO);
+        return new Claim((int) (bits >>> 32), (int) bits);
+    }
+
+    static String strip(String username) {
+        return carries(username) ? username.substring(0, username.length() - NIBBLES) : username;
+    }
+
+    private static boolean carries(String username) {
+        if (username.length() < NIBBLES) return false;
+        for (int i = username.length() - NIBBLES; i < username.length(); i++) {
+            char c = username.charAt(i);
+            if (c < ZERO || c > ZERO + 0xF) return false;
+        }
+        return true;
+    }
+
+}
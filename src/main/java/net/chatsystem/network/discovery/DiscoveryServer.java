@@ -3,22 +3,44 @@ package net.chatsystem.network.discovery;
 import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
+import java.net.Inet4Address;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
+import java.net.NetworkInterface;
 import java.net.SocketException;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.TimeUnit;
 
 import net.chatsystem.models.Contact;
 import net.chatsystem.models.ContactList;
 import net.chatsystem.models.User;
 import net.chatsystem.models.exceptions.UsernameAlreadyTakenException;
+import net.chatsystem.network.Network;
+import net.chatsystem.network.Scheduler;
 import net.chatsystem.network.exceptions.InvalidMessageException;
 import net.chatsystem.network.exceptions.UnknownSenderException;
 import net.chatsystem.network.messages.Message;
 import net.chatsystem.network.messages.MessageBuilder;
+import net.chatsystem.network.messages.WireFormat;
+import net.chatsystem.observer.EventBus;
+import net.chatsystem.observer.EventKind;
 import net.chatsystem.observer.IObserver;
 
 public class DiscoveryServer extends Thread {
@@ -30,7 +52,9 @@ public class DiscoveryServer extends Thread {
         return instance;
     }
 
-    private static final int MAX_BUFFER_LENGTH = 256;
+    // the largest UDP payload that isn't fragmented on a 1500 bytes MTU, roster snapshots are chunked to fit
+    private static final int MAX_BUFFER_LENGTH = 1472;
+    private static final int MAX_CHUNK_CONTENT = MAX_BUFFER_LENGTH - 16; // room for the V2 header
     public static final InetAddress BROADCAST_ADDRESS;
 
     static {
@@ -44,20 +68,118 @@ public class DiscoveryServer extends Thread {
     public static int SEND_PORT = 2050;
     public static int RECEIVE_PORT = 2050;
 
+    // how messages for everyone are sent: to the limited broadcast address, which every host of the
+    // segment has to process, or to a multicast group, which only the hosts that joined it receive
+    public enum Transport {
+        BROADCAST,
+        MULTICAST
+    }
+
+    public static Transport TRANSPORT = Transport.BROADCAST;
+    public static String MULTICAST_GROUP = "239.255.20.50"; // organization-local scope
+    public static int MULTICAST_TTL = 1; // stay on the local network
+
+    // once logged in, our status is sent to every V2 contact each interval as a heartbeat, and
+    // contacts that send heartbeats are marked OFFLINE after missing this many of them in a row
+    public static long HEARTBEAT_INTERVAL = 5000;
+    public static int SUSPICION_THRESHOLD = 3;
+
+    // how peers find out about each other's crashes and changes once logged in: every peer sending
+    // heartbeats to every other, or SWIM gossip, whose traffic per peer doesn't grow with the number of peers
+    public enum Membership {
+        HEARTBEAT,
+        GOSSIP
+    }
+
+    public static Membership MEMBERSHIP = Membership.HEARTBEAT;
+
+    // replies to a DISCOVER_ME are spread over this many milliseconds, so that a newcomer isn't hit
+    // by every peer at once; they don't hold the login up, only objections do and those are sent right away
+    public static long ACKNOWLEDGE_JITTER = 250;
+
+    // a login or username change is sent again this many times, waiting twice as many estimated round
+    // trip timeouts each time, and confirmed once the last wait passed without objection
+    public static int CLAIM_RETRANSMITS = 2;
+
+    // the roster chunks still missing are asked for again this many times, the wait doubling from the
+    // estimated round trip timeout each time, before another peer that acknowledged is asked instead
+    public static int ROSTER_RETRANSMITS = 2;
+
     private DatagramSocket socket; // Socket to listen on for discoveries
-    private final ArrayList<IObserver> observers = new ArrayList<>(); // observer
+    private InetAddress everyone = BROADCAST_ADDRESS; // destination of the messages for every peer
+    private List<NetworkInterface> interfaces = List.of(); // the multicast group was joined on each of them
+    private final EventBus events = new EventBus(); // observers are never called on the receive thread
+    private final FailureDetector detector = new FailureDetector();
+    // contacts marked OFFLINE for their silence rather than a DISCONNECT, a partition may be all there is to it
+    private final Set<InetAddress> suspects = ConcurrentHashMap.newKeySet();
+    private final SwimMembership swim = new SwimMembership(this);
+    private volatile ScheduledFuture<?> heartbeat;
+    private final Map<InetAddress, ScheduledFuture<?>> pendingAcknowledgements = new ConcurrentHashMap<>();
+    // the DISCOVER_ME acknowledged lately from each address, so that its retransmissions aren't answered again
+    private final Map<InetAddress, Acknowledged> acknowledged = new ConcurrentHashMap<>();
+    private record Acknowledged(String username, Claim claim, long received) {}
+    // the one peer asked for its roster during the current login, and the chunks it sent so far
+    private final AtomicReference<InetAddress> rosterSource = new AtomicReference<>();
+    private final Map<Integer, List<Contact>> rosterChunks = new HashMap<>();
+    // until the roster is merged: how many chunks it has, the other V2 peers to ask if the source
+    // doesn't send them all, and when the missing ones are asked for again
+    private boolean rosterPending;
+    private int rosterTotal = -1;
+    private int rosterAttempts;
+    private int rosterGeneration; // bumped whenever the deadline is replaced or no longer needed
+    private final Set<InetAddress> rosterFallbacks = new LinkedHashSet<>();
+    private ScheduledFuture<?> rosterDeadline;
 
     public DiscoveryServer() {
         setDaemon(true);
     }
 
-    public void bind() throws SocketException {
-        this.socket = new DatagramSocket(RECEIVE_PORT);
-        socket.setBroadcast(true);
+    public void bind() throws IOException {
+        switch (TRANSPORT) {
+            case BROADCAST -> {
+                this.socket = new DatagramSocket(RECEIVE_PORT);
+                socket.setBroadcast(true);
+            }
+            case MULTICAST -> {
+                InetAddress group = InetAddress.getByName(MULTICAST_GROUP);
+                if (!group.isMulticastAddress()) throw new SocketException(MULTICAST_GROUP + " is not a multicast address");
+                List<NetworkInterface> joined = multicastInterfaces();
+                if (joined.isEmpty()) throw new SocketException("No interface to join " + MULTICAST_GROUP + " on");
+                MulticastSocket multicast = new MulticastSocket(RECEIVE_PORT);
+                multicast.setTimeToLive(MULTICAST_TTL);
+                for (NetworkInterface iface : joined) multicast.joinGroup(new InetSocketAddress(group, 0), iface);
+                multicast.setNetworkInterface(joined.get(0));
+                this.interfaces = joined;
+                this.everyone = group;
+                this.socket = multicast;
+            }
+        }
+    }
+
+    // interfaces that are up, multicast capable and have an IPv4 address, loopback only when there is no other
+    static List<NetworkInterface> multicastInterfaces() throws SocketException {
+        List<NetworkInterface> found = new ArrayList<>();
+        NetworkInterface loopback = null;
+        for (NetworkInterface iface : Collections.list(NetworkInterface.getNetworkInterfaces())) {
+            if (!iface.isUp() || iface.inetAddresses().noneMatch(Inet4Address.class::isInstance)) continue;
+            if (iface.isLoopback()) loopback = iface;
+            else if (iface.supportsMulticast()) found.add(iface);
+        }
+        if (found.isEmpty() && loopback != null) found.add(loopback);
+        return found;
+    }
+
+    // the broadcast address, or the multicast group once bound to it
+    public InetAddress getEveryoneAddress() {
+        return everyone;
     }
 
     public void addObserver(IObserver observer) {
-        this.observers.add(observer);
+        events.subscribe(observer);
+    }
+
+    public EventBus getEvents() {
+        return events;
     }
 
     private boolean connected = false;
@@ -70,35 +192,43 @@ public class DiscoveryServer extends Thread {
     @Override
     public void run() {
         
+        // one buffer and packet for every datagram, messages are handled in place before the next receive
         byte[] buffer = new byte[MAX_BUFFER_LENGTH];
+        DatagramPacket inPacket = new DatagramPacket(buffer, buffer.length);
         try {
             while (running) {
-                DatagramPacket inPacket = new DatagramPacket(buffer, buffer.length);
+                inPacket.setLength(buffer.length);
                 socket.receive(inPacket);
-                Message msg = Message.parse(inPacket.getData(), inPacket.getLength(), inPacket.getAddress());
-                handleMessage(msg);
+                try {
+                    handleMessage(Message.parse(buffer, inPacket.getLength(), inPacket.getAddress()));
+                } catch (InvalidMessageException ex) {
+                    System.out.println(ex.getMessage());
+                }
             }
         } catch (IOException ignored) {
-        } catch (InvalidMessageException ex) {
-            System.out.println(ex.getMessage());
         }
     }
 
     public void handleMessage(Message message) {
         if (message.isFromMe()) return; // ignore self messages in broadcast
+        detector.heard(message.getAddress(), System.nanoTime());
         Message.Type type = message.getType();
-        for (IObserver o : observers) {
-            o.onMessage(message);
+        if (events.hasSubscribers(EventKind.MESSAGE)) {
+            Message kept = message.detach(); // delivered after the receive buffer is reused
+            events.publish(EventKind.MESSAGE, o -> o.onMessage(kept));
         }
         // message types handled without needing connection
         switch (type) {
             case ACKNOWLEDGE_DISCOVER -> {
-                String username = message.getContent();
+                String content = message.getContent();
                 try {
-                    Contact newContact = ContactList.getInstance().registerContact(username, message.getAddress());
-                    for (IObserver o : observers) {
-                        o.onDiscoverContact(newContact);
-                    }
+                    Contact newContact = ContactList.getInstance().registerContact(Presence.username(content), message.getAddress());
+                    newContact.setWireFormat(WireFormat.advertisedBy(content));
+                    User.Status status = Presence.status(content);
+                    if (status != null) ContactList.getInstance().changeContactStatus(newContact, status);
+                    sampleRoundTrip(Presence.heldMillis(content));
+                    events.publish(EventKind.DISCOVER_CONTACT, o -> o.onDiscoverContact(newContact));
+                    if (newContact.getWireFormat() != WireFormat.V1) offerRosterSource(message.getAddress());
                 } catch (UsernameAlreadyTakenException ex) {
                     Message response = new MessageBuilder()
                             .setType(Message.Type.USERNAME_ALREADY_TAKEN)
@@ -107,33 +237,30 @@ public class DiscoveryServer extends Thread {
                     sendMessage(response);
                 }
             }
-            case USERNAME_ALREADY_TAKEN -> {
-                for (IObserver o : observers) {
-                    o.onUsernameTaken();
-                }
-                loginTimer.cancel();
-            }
+            case USERNAME_ALREADY_TAKEN -> rejectClaim();
         }
 
         if (!connected) return;
         // message types needing connection
         switch (type) {
             case DISCOVER_ME -> {
-                String username = message.getContent();
+                String claimed = WireFormat.stripAdvertisement(message.getContent());
+                String username = Claim.strip(claimed);
+                Claim theirs = Claim.of(claimed);
+                if (theirs != null) clock.accumulateAndGet(theirs.time(), Math::max);
+                // logging in with the same username at the same time, the earlier claim wins without a word
+                Claim ours = loginClaim;
+                if (ours != null && theirs != null && theirs.compareTo(ours) < 0 && username.equals(User.getInstance().getUsername())) {
+                    rejectClaim();
+                    break;
+                }
+                if (isRetransmission(message.getAddress(), username, theirs)) break; // answered already, or about to be
                 try {
                     Contact newContact = ContactList.getInstance().registerContact(username, message.getAddress());
-                    newContact.setStatus(User.Status.ONLINE); // mark as ONLINE
-                    for (IObserver o : observers) {
-                        o.onDiscoverContact(newContact);
-                    }
-                    Message discoverMeToo = new MessageBuilder()
-                            .setType(Message.Type.ACKNOWLEDGE_DISCOVER)
-                            .setContent(User.getInstance().getUsername())
-                            .setAddress(message.getAddress())
-                            .build();
-                    sendMessage(discoverMeToo);
-                    // send my current status as well
-                    changeStatus(User.getInstance().getStatus());
+                    newContact.setWireFormat(WireFormat.advertisedBy(message.getContent()));
+                    ContactList.getInstance().changeContactStatus(newContact, User.Status.ONLINE); // mark as ONLINE
+                    events.publish(EventKind.DISCOVER_CONTACT, o -> o.onDiscoverContact(newContact));
+                    scheduleAcknowledgement(message.getAddress(), username, theirs);
                 } catch (UsernameAlreadyTakenException ex) {
                     Message response = new MessageBuilder()
                             .setType(Message.Type.USERNAME_ALREADY_TAKEN)
@@ -142,19 +269,15 @@ public class DiscoveryServer extends Thread {
                     sendMessage(response);
                 }
             }
-            case USERNAME_ALREADY_TAKEN -> {
-                for (IObserver o : observers) {
-                    o.onUsernameTaken();
-                }
-            }
             case CHANGE_USERNAME_REQUEST -> {
                 try {
-                    String oldUsername = message.getSender().getUsername();
+                    Contact sender = message.getSender();
+                    String oldUsername = sender.getUsername();
+                    String newUsername = message.getContent();
+                    if (oldUsername.equals(newUsername)) break; // a retransmission
                     // this could throw UsernameAlreadyTakenException
-                    ContactList.getInstance().changeContactUsername(message.getAddress(), message.getContent());
-                    for (IObserver o : observers) {
-                        o.onContactUsernameChange(message.getSender(), oldUsername, message.getContent());
-                    }
+                    ContactList.getInstance().changeContactUsername(message.getAddress(), newUsername);
+                    events.publish(EventKind.CONTACT_USERNAME_CHANGE, o -> o.onContactUsernameChange(sender, oldUsername, newUsername));
                 } catch (UsernameAlreadyTakenException ignored) {
                     Message response = new MessageBuilder()
                             .setType(Message.Type.USERNAME_ALREADY_TAKEN)
@@ -168,65 +291,362 @@ public class DiscoveryServer extends Thread {
                 try {
                     status = User.Status.valueOf(message.getContent());
                     Contact contact = message.getSender();
-                    contact.setStatus(status);
-                    for (IObserver o : observers) {
-                        o.onContactStatusUpdate(contact);
-                    }
+                    if (contact.getStatus() == status) break; // a heartbeat, nothing changed
+                    ContactList.getInstance().changeContactStatus(contact, status);
+                    events.publish(EventKind.CONTACT_STATUS_UPDATE, o -> o.onContactStatusUpdate(contact));
                 } catch (IllegalArgumentException | UnknownSenderException ignored) {}
             }
+            case ROSTER_REQUEST -> sendRoster(message.getAddress(), message.getContent());
+            case PING, PING_REQ, PING_ACK -> swim.handle(message);
+            case ROSTER_SNAPSHOT -> {
+                if (!message.getAddress().equals(rosterSource.get())) break; // not asked for
+                try {
+                    receiveRosterChunk(RosterSnapshot.decode(message.getContent()));
+                } catch (InvalidMessageException ex) {
+                    System.out.println(ex.getMessage());
+                }
+            }
             case DISCONNECT -> {
                 Optional<Contact> c = ContactList.getInstance().getContactByIP(message.getAddress());
                 if (c.isEmpty()) break;
-                c.get().setStatus(User.Status.OFFLINE);
-                for (IObserver o: observers) {
-                    o.onContactDisconnect(c.get());
-                }
+                Contact contact = c.get();
+                ContactList.getInstance().changeContactStatus(contact, User.Status.OFFLINE);
+                detector.forget(contact.getAddress());
+                suspects.remove(contact.getAddress());
+                swim.left(contact.getAddress());
+                cancelAcknowledgement(contact.getAddress());
+                acknowledged.remove(contact.getAddress());
+                events.publish(EventKind.CONTACT_DISCONNECT, o -> o.onContactDisconnect(contact));
             }
         }
     }
 
+    // the same username and claim from the same address within the time its claimant may retransmit it; older
+    // peers send no claim, so only the username tells their retransmissions from a retry under another name
+    private boolean isRetransmission(InetAddress address, String username, Claim claim) {
+        Acknowledged last = acknowledged.get(address);
+        if (last == null) return false;
+        long window = TimeUnit.MILLISECONDS.toNanos(RttEstimator.MAX_TIMEOUT * ((2L << CLAIM_RETRANSMITS) - 1));
+        if (System.nanoTime() - last.received() > window) return false;
+        return username.equals(last.username()) && Objects.equals(claim, last.claim());
+    }
+
+    // a DISCOVER_ME is answered once, however many times its claimant sends it
+    private void scheduleAcknowledgement(InetAddress address, String username, Claim claim) {
+        long received = System.nanoTime();
+        acknowledged.put(address, new Acknowledged(username, claim, received));
+        long delay = ThreadLocalRandom.current().nextLong(ACKNOWLEDGE_JITTER + 1);
+        pendingAcknowledgements.computeIfAbsent(address, a -> Scheduler.getInstance().schedule(() -> acknowledge(a, received), delay));
+    }
+
+    private void cancelAcknowledgement(InetAddress address) {
+        ScheduledFuture<?> pending = pendingAcknowledgements.remove(address);
+        if (pending != null) pending.cancel(false);
+    }
+
+    // the reply to a DISCOVER_ME carries our current status, instead of broadcasting it to everyone on every join
+    private void acknowledge(InetAddress address, long received) {
+        pendingAcknowledgements.remove(address);
+        if (!connected) return;
+        Optional<Contact> contact = ContactList.getInstance().getContactByIP(address);
+        if (contact.isEmpty()) return;
+        String username = User.getInstance().getUsername();
+        User.Status status = User.getInstance().getStatus();
+        boolean folded = contact.get().getWireFormat() != WireFormat.V1;
+        Message acknowledgement = new MessageBuilder()
+                .setType(Message.Type.ACKNOWLEDGE_DISCOVER)
+                .setContent(folded ? Presence.encode(username, status, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - received))
+                        : WireFormat.advertise(username))
+                .setAddress(address)
+                .build();
+        sendMessage(acknowledgement);
+        // older peers assume ONLINE, they only need to hear about anything else
+        if (!folded && status != User.Status.ONLINE) {
+            sendMessage(new MessageBuilder()
+                    .setType(Message.Type.STATUS_CHANGE)
+                    .setContent(status.toString())
+                    .setAddress(address)
+                    .build());
+        }
+    }
+
+    // our online contacts, but the one asking and the ones it couldn't read the snapshot from;
+    // only the chunks asked for, when the request says which
+    private void sendRoster(InetAddress address, String request) {
+        Optional<Contact> requester = ContactList.getInstance().getContactByIP(address);
+        if (requester.isEmpty() || requester.get().getWireFormat() == WireFormat.V1) return;
+        List<Contact> roster = ContactList.getInstance().getContacts().stream()
+                .filter(contact -> contact.getStatus() != User.Status.OFFLINE && !contact.getAddress().equals(address))
+                .toList();
+        List<String> chunks = RosterSnapshot.encode(roster, MAX_CHUNK_CONTENT);
+        for (int index : RosterSnapshot.requested(request, chunks.size())) {
+            sendMessage(new MessageBuilder()
+                    .setType(Message.Type.ROSTER_SNAPSHOT)
+                    .setContent(chunks.get(index))
+                    .setAddress(address)
+                    .build());
+        }
+    }
+
+    // the first peer able to send the whole roster is asked for it, the others are kept in case it doesn't
+    private synchronized void offerRosterSource(InetAddress address) {
+        if (rosterSource.compareAndSet(null, address)) {
+            rosterPending = true;
+            requestRoster(address, List.of());
+        } else if (rosterPending && !address.equals(rosterSource.get())) {
+            rosterFallbacks.add(address);
+        }
+    }
+
+    private void requestRoster(InetAddress address, List<Integer> missing) {
+        sendMessage(new MessageBuilder()
+                .setType(Message.Type.ROSTER_REQUEST)
+                .setContent(RosterSnapshot.request(missing, MAX_CHUNK_CONTENT))
+                .setAddress(address)
+                .build());
+        scheduleRosterDeadline();
+    }
+
+    // pushed back by every chunk that arrives, only a silence means that the rest was lost
+    private void scheduleRosterDeadline() {
+        if (rosterDeadline != null) rosterDeadline.cancel(false);
+        int generation = ++rosterGeneration;
+        rosterDeadline = Scheduler.getInstance().schedule(() -> rosterTimedOut(generation), rtt.timeout() << rosterAttempts);
+    }
+
+    // a chunk, or the request itself, was lost: the missing chunks are asked for again, then from another peer
+    private synchronized void rosterTimedOut(int generation) {
+        if (generation != rosterGeneration) return; // merged, or asked again since
+        rosterDeadline = null;
+        if (rosterAttempts < ROSTER_RETRANSMITS) {
+            rosterAttempts++;
+            requestRoster(rosterSource.get(), missingRosterChunks());
+            return;
+        }
+        Iterator<InetAddress> fallbacks = rosterFallbacks.iterator();
+        if (!fallbacks.hasNext()) {
+            mergeRoster(); // the chunks that did arrive are still worth having
+            return;
+        }
+        InetAddress next = fallbacks.next();
+        fallbacks.remove();
+        rosterSource.set(next);
+        rosterChunks.clear();
+        rosterTotal = -1;
+        rosterAttempts = 0;
+        requestRoster(next, List.of());
+    }
+
+    // none when nothing arrived yet, not even how many chunks there are, which asks for all of them
+    private List<Integer> missingRosterChunks() {
+        List<Integer> missing = new ArrayList<>();
+        for (int i = 0; i < rosterTotal; i++) {
+            if (!rosterChunks.containsKey(i)) missing.add(i);
+        }
+        return missing;
+    }
+
+    // chunks are kept until all of them arrived, then merged at once and announced in a single event
+    private synchronized void receiveRosterChunk(RosterSnapshot.Chunk chunk) {
+        if (!rosterPending) return; // a late duplicate
+        if (chunk.total() != rosterTotal) {
+            // the roster changed between two sends, their chunks don't line up
+            rosterChunks.clear();
+            rosterTotal = chunk.total();
+        }
+        rosterChunks.putIfAbsent(chunk.index(), chunk.contacts());
+        if (rosterChunks.size() < rosterTotal) {
+            scheduleRosterDeadline();
+            return;
+        }
+        mergeRoster();
+    }
+
+    private void mergeRoster() {
+        List<Contact> roster = new ArrayList<>();
+        for (List<Contact> contacts : rosterChunks.values()) {
+            for (Contact contact : contacts) {
+                if (!Network.isLocalAddress(contact.getAddress())) roster.add(contact);
+            }
+        }
+        resetRoster();
+        List<Contact> merged = ContactList.getInstance().registerContacts(roster);
+        if (!merged.isEmpty()) events.publish(EventKind.ROSTER_UPDATE, o -> o.onRosterUpdate(merged));
+    }
+
+    // the source is kept, so that no one else is asked for the roster until the next login
+    private synchronized void resetRoster() {
+        rosterPending = false;
+        rosterGeneration++;
+        if (rosterDeadline != null) rosterDeadline.cancel(false);
+        rosterDeadline = null;
+        rosterChunks.clear();
+        rosterTotal = -1;
+        rosterAttempts = 0;
+        rosterFallbacks.clear();
+    }
+
+    // runs on the scheduler every HEARTBEAT_INTERVAL once logged in
+    private void heartbeat() {
+        if (!connected) return;
+        String status = User.getInstance().getStatus().toString();
+        long now = System.nanoTime();
+        long timeout = TimeUnit.MILLISECONDS.toNanos(HEARTBEAT_INTERVAL * SUSPICION_THRESHOLD);
+        for (Contact contact : ContactList.getInstance().getContacts()) {
+            // older peers only say something when their status changes, their silence means nothing,
+            // and they would take an unchanged status for an update, so they aren't sent heartbeats either
+            if (contact.getWireFormat() == WireFormat.V1) continue;
+            InetAddress address = contact.getAddress();
+            if (contact.getStatus() == User.Status.OFFLINE) {
+                // suspects are still sent heartbeats, so that both sides of a healed partition hear from each other again
+                if (!suspects.contains(address)) continue;
+            } else if (detector.isSuspected(address, now, timeout)) {
+                ContactList.getInstance().changeContactStatus(contact, User.Status.OFFLINE);
+                detector.forget(address);
+                suspects.add(address);
+                events.publish(EventKind.CONTACT_DISCONNECT, o -> o.onContactDisconnect(contact));
+            }
+            // STATUS_CHANGE rather than a type of its own, older peers would choke on an unknown type
+            Message beat = new MessageBuilder()
+                    .setType(Message.Type.STATUS_CHANGE)
+                    .setContent(status)
+                    .setAddress(address)
+                    .build();
+            sendMessage(beat);
+        }
+    }
+
+    private synchronized void startHeartbeat() {
+        if (heartbeat != null) return;
+        heartbeat = switch (MEMBERSHIP) {
+            case HEARTBEAT -> Scheduler.getInstance().scheduleWithFixedDelay(this::heartbeat, HEARTBEAT_INTERVAL, HEARTBEAT_INTERVAL);
+            case GOSSIP -> Scheduler.getInstance().scheduleWithFixedDelay(swim::tick, SwimMembership.PROTOCOL_PERIOD, SwimMembership.PROTOCOL_PERIOD);
+        };
+    }
+
+    private synchronized void stopHeartbeat() {
+        if (heartbeat == null) return;
+        heartbeat.cancel(false);
+        heartbeat = null;
+    }
+
+    // messages for everyone stay in V1 so every peer reads them, contacts that advertised V2 get it
     public synchronized void sendMessage(Message message) {
-        byte[] buffer = message.toBuffer();
+        WireFormat format = ContactList.getInstance().getContactByIP(message.getAddress())
+                .map(Contact::getWireFormat)
+                .orElse(WireFormat.V1);
+        byte[] buffer = message.toBuffer(format);
         DatagramPacket p = new DatagramPacket(buffer, 0, buffer.length, message.getAddress(), SEND_PORT);
         try {
-            socket.send(p);
+            if (interfaces.size() > 1 && message.getAddress().equals(everyone)) {
+                // a multicast only leaves through one interface, send it through each of them
+                MulticastSocket multicast = (MulticastSocket) socket;
+                for (NetworkInterface iface : interfaces) {
+                    multicast.setNetworkInterface(iface);
+                    multicast.send(p);
+                }
+            } else socket.send(p);
         } catch (IOException ex) {
             System.out.println("Error sending message to " + message.getAddress());
         }
     }
 
-    Timer loginTimer = new Timer();
-    private static final long USERNAME_CONFIRMATION_DELAY = 1000;
-    private class LoginTimerTask extends TimerTask {
-        @Override
-        public void run() {
-            connected = true;
-            for(IObserver o : observers) {
-                o.onLoggedIn(User.getInstance());
-            }
+    // pending login or username change confirmation, cancelled when someone objects
+    private ScheduledFuture<?> confirmation;
+    private int claimGeneration = 0; // bumped on cancellation, so that a step already running gives up
+    private final AtomicInteger clock = new AtomicInteger(); // Lamport clock of the username claims
+    private final int nodeId = ThreadLocalRandom.current().nextInt();
+    private volatile Claim loginClaim; // while logging in
+    private final RttEstimator rtt = new RttEstimator();
+    private volatile long[] claimSends = new long[0]; // when the current claim was sent, and sent again
+
+    private void confirmLogin() {
+        loginClaim = null;
+        connected = true;
+        if (MEMBERSHIP == Membership.GOSSIP) swim.announce();
+        startHeartbeat();
+        events.publish(EventKind.LOGGED_IN, o -> o.onLoggedIn(User.getInstance()));
+    }
+
+    private void confirmUsernameChange(String username) {
+        User.getInstance().setUsername(username);
+        if (MEMBERSHIP == Membership.GOSSIP) swim.announce(); // for the peers that missed the request
+        events.publish(EventKind.USERNAME_CHANGED, o -> o.onUsernameChanged(username));
+    }
+
+    // a new claim replaces the previous one
+    private synchronized void claim(Message claim, Runnable confirm) {
+        cancelConfirmation();
+        claimSends = new long[0];
+        sendClaim(claim, confirm, claimGeneration, 0);
+    }
+
+    // the wait is taken from the estimate on every send, the acknowledgements to the first one
+    // usually bring it down from the initial guess
+    private void sendClaim(Message claim, Runnable confirm, int generation, int retransmits) {
+        long[] sends = Arrays.copyOf(claimSends, claimSends.length + 1);
+        sends[sends.length - 1] = System.nanoTime();
+        claimSends = sends;
+        sendMessage(claim);
+        long timeout = rtt.timeout() << retransmits;
+        confirmation = Scheduler.getInstance().schedule(() -> claimTimedOut(claim, confirm, generation, retransmits), timeout);
+    }
+
+    private synchronized void claimTimedOut(Message claim, Runnable confirm, int generation, int retransmits) {
+        if (generation != claimGeneration) return; // someone objected
+        if (retransmits < CLAIM_RETRANSMITS) {
+            sendClaim(claim, confirm, generation, retransmits + 1);
+            return;
         }
+        confirmation = null;
+        confirm.run();
     }
-    private class UsernameChangeTask extends TimerTask {
-        @Override
-        public void run() {
-            User.getInstance().setUsername(newUsername);
-            for(IObserver o : observers) {
-                o.onUsernameChanged(newUsername);
-            }
+
+    // whether a claim was pending
+    private synchronized boolean cancelConfirmation() {
+        claimGeneration++;
+        if (confirmation == null) return false;
+        confirmation.cancel(false);
+        confirmation = null;
+        return true;
+    }
+
+    // reported once per claim, the objections to its retransmissions are ignored
+    private synchronized void rejectClaim() {
+        if (!cancelConfirmation()) return;
+        if (loginClaim != null) {
+            loginClaim = null;
+            connected = false; // the username is no longer held
+        }
+        events.publish(EventKind.USERNAME_TAKEN, o -> o.onUsernameTaken());
+    }
+
+    // an acknowledgement answers the last transmission of the claim sent before it was received
+    // and held back, retransmissions are far enough apart on a LAN for that to be unambiguous
+    private void sampleRoundTrip(long heldMillis) {
+        long[] sends = claimSends;
+        long answered = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(heldMillis);
+        for (int i = sends.length - 1; i >= 0; i--) {
+            if (sends[i] > answered) continue;
+            rtt.sample(answered - sends[i]);
+            return;
         }
     }
 
     public synchronized void attemptLogin() {
 
+        swim.reset();
+        resetRoster();
+        rosterSource.set(null);
+
         String username = User.getInstance().getUsername();
+        loginClaim = new Claim(clock.incrementAndGet(), nodeId);
         Message login = new MessageBuilder()
                 .setType(Message.Type.DISCOVER_ME)
-                .setContent(username)
-                .setAddress(BROADCAST_ADDRESS)
+                .setContent(WireFormat.advertise(Claim.append(username, loginClaim)))
+                .setAddress(everyone)
                 .build();
-        sendMessage(login);
-        loginTimer = new Timer();
-        loginTimer.schedule(new LoginTimerTask(), USERNAME_CONFIRMATION_DELAY);
+        claim(login, this::confirmLogin);
 
         // while trying to log in, the user should hold the username hostage,
         // in case someone else tries to log in at the same time with that same username
@@ -238,38 +658,51 @@ public class DiscoveryServer extends Thread {
         if (!running) return; //if already disconnected, no need to disconnect twice (ShutdownHook re-runs it)
         Message disconnect = new MessageBuilder()
                 .setType(Message.Type.DISCONNECT)
-                .setAddress(BROADCAST_ADDRESS)
+                .setAddress(everyone)
                 .build();
         sendMessage(disconnect);
+        cancelConfirmation();
+        stopHeartbeat();
+        suspects.clear();
+        resetRoster();
+        pendingAcknowledgements.keySet().forEach(this::cancelAcknowledgement);
+        acknowledged.clear();
         running = false;
         connected = false;
         socket.close();
     }
 
-    private String newUsername;
     public synchronized void changeUsername(String username) {
-        newUsername = username;
         Message login = new MessageBuilder()
                 .setType(Message.Type.CHANGE_USERNAME_REQUEST)
                 .setContent(username)
-                .setAddress(BROADCAST_ADDRESS)
+                .setAddress(everyone)
                 .build();
-        sendMessage(login);
-        loginTimer = new Timer();
-        loginTimer.schedule(new UsernameChangeTask(), USERNAME_CONFIRMATION_DELAY);
+        claim(login, () -> confirmUsernameChange(username));
     }
 
     public synchronized void changeStatus(User.Status newStatus) {
         User.getInstance().setStatus(newStatus);
-        Message msg = new MessageBuilder()
-                .setType(Message.Type.STATUS_CHANGE)
-                .setContent(newStatus.toString())
-                .setAddress(BROADCAST_ADDRESS)
-                .build();
-        sendMessage(msg);
-        for (IObserver o : observers) {
-            o.onStatusChanged(newStatus);
+        if (MEMBERSHIP == Membership.GOSSIP && connected) {
+            // gossiped to the peers that gossip, older peers are told directly
+            swim.announce();
+            for (Contact contact : ContactList.getInstance().getContacts()) {
+                if (contact.getWireFormat() != WireFormat.V1 || contact.getStatus() == User.Status.OFFLINE) continue;
+                sendMessage(new MessageBuilder()
+                        .setType(Message.Type.STATUS_CHANGE)
+                        .setContent(newStatus.toString())
+                        .setAddress(contact.getAddress())
+                        .build());
+            }
+        } else {
+            Message msg = new MessageBuilder()
+                    .setType(Message.Type.STATUS_CHANGE)
+                    .setContent(newStatus.toString())
+                    .setAddress(everyone)
+                    .build();
+            sendMessage(msg);
         }
+        events.publish(EventKind.STATUS_CHANGED, o -> o.onStatusChanged(newStatus));
     }
 
 }
@@ -0,0 +1,31 @@
+package net.chatsystem.network.discovery;
+
+import java.net.InetAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Timeout based failure detector: remembers when each peer was last heard from,
+ * a peer silent for longer than the timeout is suspected to be gone.
+ * Times are System.nanoTime() values, passed in so that checks are cheap and testable.
+ */
+class FailureDetector {
+
+    private final Map<InetAddress, Long> lastHeard = new ConcurrentHashMap<>();
+
+    // any datagram counts, heartbeats are just there for when nothing else is said
+    void heard(InetAddress address, long now) {
+        lastHeard.put(address, now);
+    }
+
+    void forget(InetAddress address) {
+        lastHeard.remove(address);
+    }
+
+    // the clock of a peer never heard from before starts now
+    boolean isSuspected(InetAddress address, long now, long timeoutNanos) {
+        long last = lastHeard.computeIfAbsent(address, ignored -> now);
+        return now - last > timeoutNanos;
+    }
+
+}
@@ -0,0 +1,53 @@
+package net.chatsystem.network.discovery;
+
+import net.chatsystem.models.User;
+import net.chatsystem.network.messages.WireFormat;
+
+/**
+ * Content of an ACKNOWLEDGE_DISCOVER sent to a peer that advertised V2: the username followed by the
+ * current status, so that a newcomer learns everyone's presence without a STATUS_CHANGE per peer,
+ * and by how long the reply was held back, so that the newcomer can tell the round trip time from it.
+ * Older peers only ever get the bare username, they would take the rest for part of it.
+ */
+final class Presence {
+
+    private static final char SEPARATOR = '\u001F'; // unit separator, never typed in a username
+
+    private Presence() {}
+
+    static String encode(String username, User.Status status, long heldMillis) {
+        return WireFormat.advertise(username + SEPARATOR + status + SEPARATOR + heldMillis);
+    }
+
+    static String username(String content) {
+        return field(content, 0);
+    }
+
+    // null when the content carries no (valid) status
+    static User.Status status(String content) {
+        String status = field(content, 1);
+        if (status == null) return null;
+        try {
+            return User.Status.valueOf(status);
+        } catch (IllegalArgumentException ex) {
+            return null;
+        }
+    }
+
+    // 0 when unknown
+    static long heldMillis(String content) {
+        String held = field(content, 2);
+        if (held == null) return 0;
+        try {
+            return Math.max(0, Long.parseLong(held));
+        } catch (NumberFormatException ex) {
+            return 0;
+        }
+    }
+
+    private static String field(String content, int index) {
+        String[] fields = WireFormat.stripAdvertisement(content).split(String.valueOf(SEPARATOR), -1);
+        return index < fields.length ? fields[index] : null;
+    }
+
+}
@@ -0,0 +1,104 @@
+package net.chatsystem.network.discovery;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.chatsystem.models.Contact;
+import net.chatsystem.models.User;
+import net.chatsystem.network.Network;
+import net.chatsystem.network.exceptions.InvalidMessageException;
+import net.chatsystem.network.messages.WireFormat;
+
+/**
+ * Contacts of a peer, sent to a newcomer in as few ROSTER_SNAPSHOT datagrams as possible.
+ * Every chunk reads "index/total", then one record per contact: username, address, status and wire format version.
+ * A ROSTER_REQUEST carries the indices of the chunks that went missing, separated by commas, or nothing for all of them.
+ */
+final class RosterSnapshot {
+
+    private static final char RECORD = '\u001E'; // record separator
+    private static final char FIELD = '\u001F'; // unit separator, never typed in a username
+    private static final int HEADER_LENGTH = 12; // room for "index/total" and the record separator
+
+    private RosterSnapshot() {}
+
+    record Chunk(int index, int total, List<Contact> contacts) {}
+
+    // chunk contents, each at most maxBytes once UTF-8 encoded
+    static List<String> encode(List<Contact> contacts, int maxBytes) {
+        List<StringBuilder> bodies = new ArrayList<>();
+        StringBuilder body = null;
+        int bodyBytes = 0;
+        for (Contact contact : contacts) {
+            String record = contact.getUsername() + FIELD + contact.getAddress().getHostAddress()
+                    + FIELD + contact.getStatus() + FIELD + contact.getWireFormat().getVersion();
+            int recordBytes = record.getBytes(StandardCharsets.UTF_8).length + 1;
+            if (HEADER_LENGTH + recordBytes > maxBytes) continue; // can't fit in any chunk
+            if (body == null || HEADER_LENGTH + bodyBytes + recordBytes > maxBytes) {
+                body = new StringBuilder();
+                bodies.add(body);
+                bodyBytes = 0;
+            }
+            body.append(RECORD).append(record);
+            bodyBytes += recordBytes;
+        }
+        if (bodies.isEmpty()) bodies.add(new StringBuilder()); // an empty roster still tells the newcomer so
+
+        List<String> chunks = new ArrayList<>(bodies.size());
+        for (int i = 0; i < bodies.size(); i++) chunks.add(i + "/" + bodies.size() + bodies.get(i));
+        return chunks;
+    }
+
+    // the content of a ROSTER_REQUEST for these chunks, the whole roster is asked for when they don't fit
+    static String request(List<Integer> missing, int maxBytes) {
+        StringBuilder request = new StringBuilder();
+        for (int index : missing) {
+            if (!request.isEmpty()) request.append(',');
+            request.append(index);
+        }
+        return request.length() > maxBytes ? "" : request.toString();
+    }
+
+    // the chunks asked for by a ROSTER_REQUEST, out of total; all of them if it doesn't say which
+    static List<Integer> requested(String request, int total) {
+        List<Integer> indices = new ArrayList<>();
+        if (!request.isEmpty()) {
+            for (String index : request.split(",")) {
+                try {
+                    int i = Integer.parseInt(index);
+                    if (i >= 0 && i < total && !indices.contains(i)) indices.add(i);
+                } catch (NumberFormatException ignored) {}
+            }
+        }
+        if (!indices.isEmpty()) return indices;
+        for (int i = 0; i < total; i++) indices.add(i);
+        return indices;
+    }
+
+    static Chunk decode(String content) throws InvalidMessageException {
+        String[] records = content.split(String.valueOf(RECORD), -1);
+        try {
+            int slash = records[0].indexOf('/');
+            int index = Integer.parseInt(records[0].substring(0, slash));
+            int total = Integer.parseInt(records[0].substring(slash + 1));
+            if (index < 0 || index >= total) throw new InvalidMessageException("Invalid roster chunk " + records[0]);
+
+            List<Contact> contacts = new ArrayList<>(records.length - 1);
+            for (int i = 1; i < records.length; i++) {
+                String[] fields = records[i].split(String.valueOf(FIELD), -1);
+                if (fields.length != 4) throw new InvalidMessageException("Invalid roster record");
+                Contact contact = new Contact(fields[0], Network.parseLiteral(fields[1]));
+                contact.setStatus(User.Status.valueOf(fields[2]));
+                contact.setWireFormat(WireFormat.ofVersion(Math.min(Integer.parseInt(fields[3]), WireFormat.LATEST.getVersion())));
+                contacts.add(contact);
+            }
+            return new Chunk(index, total, contacts);
+        } catch (IndexOutOfBoundsException | IllegalArgumentException | UnknownHostException ex) {
+            throw new InvalidMessageException("Invalid roster chunk");
+        }
+    }
+
+}
@@ -0,0 +1,37 @@
+package net.chatsystem.network.discovery;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Smoothed round trip time to the peers and its variation, as TCP keeps them (RFC 6298),
+ * from which the time to wait for an objection to a username claim is derived.
+ * Samples are System.nanoTime() differences.
+ */
+class RttEstimator {
+
+    static long INITIAL_TIMEOUT = 100; // milliseconds, before any sample
+    static long MIN_TIMEOUT = 50; // an objection still has to be scheduled and sent
+    static long MAX_TIMEOUT = 1000;
+
+    private long smoothed = -1; // nanoseconds, negative until the first sample
+    private long variation = 0;
+
+    synchronized void sample(long rttNanos) {
+        if (rttNanos < 0) return;
+        if (smoothed < 0) {
+            smoothed = rttNanos;
+            variation = rttNanos / 2;
+        } else {
+            variation = (3 * variation + Math.abs(smoothed - rttNanos)) / 4;
+            smoothed = (7 * smoothed + rttNanos) / 8;
+        }
+    }
+
+    // milliseconds
+    synchronized long timeout() {
+        if (smoothed < 0) return INITIAL_TIMEOUT;
+        long timeout = TimeUnit.NANOSECONDS.toMillis(smoothed + 4 * variation);
+        return Math.max(MIN_TIMEOUT, Math.min(MAX_TIMEOUT, timeout));
+    }
+
+}
@@ -0,0 +1,379 @@
+package net.chatsystem.network.discovery;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import net.chatsystem.models.Contact;
+import net.chatsystem.models.ContactList;
+import net.chatsystem.models.User;
+import net.chatsystem.models.exceptions.UsernameAlreadyTakenException;
+import net.chatsystem.network.Network;
+import net.chatsystem.network.Scheduler;
+import net.chatsystem.network.exceptions.InvalidMessageException;
+import net.chatsystem.network.messages.Message;
+import net.chatsystem.network.messages.MessageBuilder;
+import net.chatsystem.network.messages.WireFormat;
+import net.chatsystem.observer.EventKind;
+
+/**
+ * SWIM membership among the contacts that advertised V2, used instead of all-to-all heartbeats when
+ * {@link DiscoveryServer#MEMBERSHIP} is GOSSIP.
+ * Every protocol period one member is probed with a PING, through INDIRECT_PROBES other members (PING_REQ)
+ * when it doesn't answer within PING_TIMEOUT, and suspected when none of them got an answer either.
+ * A suspect that doesn't refute it within SUSPICION_PERIODS is declared dead, that is OFFLINE.
+ * Joins, leaves, suspicions, status and username changes are piggybacked on the probes and their
+ * acknowledgements, each a few times log(N), so that every member sends and receives about the same
+ * number of messages per period however large the LAN is.
+ */
+final class SwimMembership {
+
+    static long PROTOCOL_PERIOD = 1000;
+    static long PING_TIMEOUT = 300;
+    static int INDIRECT_PROBES = 3;
+    static int SUSPICION_PERIODS = 5;
+    static int MAX_PIGGYBACK = 6;
+    static int RETRANSMIT_MULTIPLIER = 3;
+
+    private static final char RECORD = '\u001E'; // record separator
+    private static final char FIELD = '\u001F'; // unit separator, never typed in a username
+
+    // ordered by precedence for a same incarnation
+    enum State {
+        ALIVE,
+        SUSPECT,
+        DEAD
+    }
+
+    // address is null for an update about the sender itself, which may not know the address we see it from
+    record Update(InetAddress address, String username, User.Status status, long incarnation, State state) {
+
+        // an update wins over an older incarnation, or over a lower state of the same incarnation
+        boolean supersedes(Member member) {
+            if (member == null) return true;
+            if (incarnation != member.incarnation()) return incarnation > member.incarnation();
+            return state.compareTo(member.state()) > 0;
+        }
+    }
+
+    record Member(long incarnation, State state) {}
+
+    // an update being disseminated, and the number of messages it already rode on
+    private static final class Rumor {
+        private final Update update;
+        private int sent = 0;
+
+        private Rumor(Update update) {
+            this.update = update;
+        }
+    }
+
+    // our own probe when requester is null, one made on behalf of requester otherwise
+    private record Probe(InetAddress target, InetAddress requester, long requesterSequence) {}
+
+    private final DiscoveryServer server;
+    private final List<Message> outbox = new ArrayList<>(); // sent once the lock is released, sendMessage locks the server
+
+    // ours, from the clock at login so that it beats whatever was known of our previous session
+    private long incarnation = System.currentTimeMillis();
+    private final Map<InetAddress, Member> members = new HashMap<>();
+    private final Map<InetAddress, Long> suspectedSince = new HashMap<>();
+    private final Map<InetAddress, Rumor> rumors = new HashMap<>(); // the newest update per member, ours under null
+
+    private final List<InetAddress> probeOrder = new ArrayList<>(); // shuffled members, one round of probes
+    private int probeIndex = 0;
+    private final Map<Long, Probe> probes = new HashMap<>();
+    private long nextSequence = 1;
+    private long currentSequence = 0; // our probe of the current period
+
+    SwimMembership(DiscoveryServer server) {
+        this.server = server;
+    }
+
+    // logged in, or our username or status changed
+    synchronized void announce() {
+        incarnation = Math.max(incarnation + 1, System.currentTimeMillis());
+        rumor(self());
+    }
+
+    synchronized void reset() {
+        members.clear();
+        suspectedSince.clear();
+        rumors.clear();
+        probes.clear();
+        probeOrder.clear();
+        probeIndex = 0;
+    }
+
+    // a DISCONNECT, passed on to the members that missed it
+    synchronized void left(InetAddress address) {
+        Member member = members.get(address);
+        if (member == null || member.state() == State.DEAD) return;
+        Update dead = new Update(address, "", User.Status.OFFLINE, member.incarnation(), State.DEAD);
+        members.put(address, new Member(dead.incarnation(), State.DEAD));
+        suspectedSince.remove(address);
+        rumor(dead);
+    }
+
+    // runs on the scheduler every PROTOCOL_PERIOD once logged in
+    void tick() {
+        run(this::probe);
+    }
+
+    void handle(Message message) {
+        run(() -> receive(message));
+    }
+
+    private void probeTimedOut(long sequence) {
+        run(() -> probeIndirectly(sequence));
+    }
+
+    private void run(Runnable locked) {
+        List<Message> messages;
+        synchronized (this) {
+            locked.run();
+            messages = List.copyOf(outbox);
+            outbox.clear();
+        }
+        messages.forEach(server::sendMessage);
+    }
+
+    private void probe() {
+        long now = System.nanoTime();
+        // the probe of the last period was acknowledged neither directly nor indirectly
+        Probe last = probes.get(currentSequence);
+        if (last != null) suspect(last.target(), now);
+        probes.clear(); // including the relays, whose requesters gave up by now
+        expireSuspects(now);
+
+        InetAddress target = nextTarget();
+        if (target == null) return;
+        long sequence = nextSequence++;
+        currentSequence = sequence;
+        probes.put(sequence, new Probe(target, null, 0));
+        send(Message.Type.PING, target, String.valueOf(sequence));
+        Scheduler.getInstance().schedule(() -> probeTimedOut(sequence), PING_TIMEOUT);
+    }
+
+    private void probeIndirectly(long sequence) {
+        Probe probe = probes.get(sequence);
+        if (probe == null || sequence != currentSequence) return; // acknowledged, or a period went by
+        List<InetAddress> helpers = new ArrayList<>(probeCandidates());
+        helpers.remove(probe.target());
+        Collections.shuffle(helpers);
+        for (InetAddress helper : helpers.subList(0, Math.min(INDIRECT_PROBES, helpers.size()))) {
+            send(Message.Type.PING_REQ, helper, sequence + String.valueOf(FIELD) + probe.target().getHostAddress());
+        }
+    }
+
+    private void receive(Message message) {
+        InetAddress sender = message.getAddress();
+        String[] parts = message.getContent().split(String.valueOf(RECORD), -1);
+        String[] header = parts[0].split(String.valueOf(FIELD), -1);
+        long sequence;
+        try {
+            sequence = Long.parseLong(header[0]);
+            for (int i = 1; i < parts.length; i++) apply(decode(parts[i]), sender);
+        } catch (NumberFormatException | InvalidMessageException ex) {
+            System.out.println("Invalid " + message.getType() + " from " + sender);
+            return;
+        }
+
+        switch (message.getType()) {
+            case PING -> send(Message.Type.PING_ACK, sender, String.valueOf(sequence));
+            case PING_REQ -> {
+                if (header.length != 2) return;
+                InetAddress target;
+                try {
+                    target = Network.parseLiteral(header[1]);
+                } catch (UnknownHostException ex) {
+                    return;
+                }
+                long relay = nextSequence++;
+                probes.put(relay, new Probe(target, sender, sequence));
+                send(Message.Type.PING, target, String.valueOf(relay));
+            }
+            case PING_ACK -> {
+                Probe probe = probes.remove(sequence);
+                if (probe == null || probe.requester() == null) return;
+                send(Message.Type.PING_ACK, probe.requester(), String.valueOf(probe.requesterSequence()));
+            }
+        }
+    }
+
+    private void apply(Update update, InetAddress sender) {
+        InetAddress address = update.address() == null ? sender : update.address();
+        if (Network.isLocalAddress(address)) {
+            // somebody thinks we are gone, outdate that with a newer incarnation
+            if (update.state() != State.ALIVE && update.incarnation() >= incarnation) {
+                incarnation = update.incarnation() + 1;
+                rumor(self());
+            }
+            return;
+        }
+        Member member = members.get(address);
+        if (!update.supersedes(member)) return;
+        if (member == null && update.state() == State.SUSPECT) return; // nothing to suspect
+        members.put(address, new Member(update.incarnation(), update.state()));
+
+        Update known = update.address() == null
+                ? new Update(address, update.username(), update.status(), update.incarnation(), update.state())
+                : update;
+        switch (update.state()) {
+            case ALIVE -> {
+                suspectedSince.remove(address);
+                alive(known);
+            }
+            case SUSPECT -> suspectedSince.putIfAbsent(address, System.nanoTime());
+            case DEAD -> {
+                suspectedSince.remove(address);
+                dead(address);
+            }
+        }
+        rumor(known);
+    }
+
+    // registers the member, or catches up with its username and status
+    private void alive(Update update) {
+        ContactList contacts = ContactList.getInstance();
+        Optional<Contact> existing = contacts.getContactByIP(update.address());
+        String oldUsername = existing.map(Contact::getUsername).orElse(null);
+        User.Status oldStatus = existing.map(Contact::getStatus).orElse(null);
+        Contact contact;
+        try {
+            contact = contacts.registerContact(update.username(), update.address());
+        } catch (UsernameAlreadyTakenException | IllegalArgumentException ex) {
+            return;
+        }
+        contact.setWireFormat(WireFormat.V2);
+        contacts.changeContactStatus(contact, update.status());
+        if (existing.isEmpty()) {
+            if (update.status() == User.Status.OFFLINE) return; // invisible, as it would be to a DISCOVER_ME
+            server.getEvents().publish(EventKind.DISCOVER_CONTACT, o -> o.onDiscoverContact(contact));
+            return;
+        }
+        String newUsername = update.username();
+        if (!newUsername.equals(oldUsername)) {
+            server.getEvents().publish(EventKind.CONTACT_USERNAME_CHANGE, o -> o.onContactUsernameChange(contact, oldUsername, newUsername));
+        }
+        if (update.status() != oldStatus) {
+            server.getEvents().publish(EventKind.CONTACT_STATUS_UPDATE, o -> o.onContactStatusUpdate(contact));
+        }
+    }
+
+    private void dead(InetAddress address) {
+        Optional<Contact> existing = ContactList.getInstance().getContactByIP(address);
+        if (existing.isEmpty() || existing.get().getStatus() == User.Status.OFFLINE) return;
+        Contact contact = existing.get();
+        ContactList.getInstance().changeContactStatus(contact, User.Status.OFFLINE);
+        server.getEvents().publish(EventKind.CONTACT_DISCONNECT, o -> o.onContactDisconnect(contact));
+    }
+
+    private void suspect(InetAddress address, long now) {
+        Member member = members.get(address);
+        long known = member == null ? 0 : member.incarnation();
+        if (member != null && member.state() != State.ALIVE) return;
+        Contact contact = ContactList.getInstance().getContactByIP(address).orElse(null);
+        if (contact == null) return;
+        members.put(address, new Member(known, State.SUSPECT));
+        suspectedSince.put(address, now);
+        rumor(new Update(address, contact.getUsername(), contact.getStatus(), known, State.SUSPECT));
+    }
+
+    private void expireSuspects(long now) {
+        long timeout = TimeUnit.MILLISECONDS.toNanos(PROTOCOL_PERIOD * SUSPICION_PERIODS);
+        Iterator<Map.Entry<InetAddress, Long>> it = suspectedSince.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<InetAddress, Long> suspect = it.next();
+            if (now - suspect.getValue() < timeout) continue;
+            it.remove();
+            InetAddress address = suspect.getKey();
+            long known = members.get(address).incarnation();
+            members.put(address, new Member(known, State.DEAD));
+            dead(address);
+            rumor(new Update(address, "", User.Status.OFFLINE, known, State.DEAD));
+        }
+    }
+
+    // members are probed in a random order, each once per round
+    private InetAddress nextTarget() {
+        while (true) {
+            if (probeIndex >= probeOrder.size()) {
+                probeOrder.clear();
+                probeOrder.addAll(probeCandidates());
+                Collections.shuffle(probeOrder);
+                probeIndex = 0;
+                if (probeOrder.isEmpty()) return null;
+            }
+            InetAddress target = probeOrder.get(probeIndex++);
+            Member member = members.get(target);
+            if (member == null || member.state() != State.DEAD) return target;
+        }
+    }
+
+    private List<InetAddress> probeCandidates() {
+        List<InetAddress> candidates = new ArrayList<>();
+        for (Contact contact : ContactList.getInstance().getContacts()) {
+            if (contact.getWireFormat() != WireFormat.V1 && contact.getStatus() != User.Status.OFFLINE) candidates.add(contact.getAddress());
+        }
+        return candidates;
+    }
+
+    private Update self() {
+        User user = User.getInstance();
+        return new Update(null, user.getUsername(), user.getStatus(), incarnation, State.ALIVE);
+    }
+
+    private void rumor(Update update) {
+        rumors.put(update.address(), new Rumor(update));
+    }
+
+    // the least disseminated rumors, dropped once they rode on enough messages to have reached everyone
+    private String piggyback() {
+        if (rumors.isEmpty()) return "";
+        int limit = RETRANSMIT_MULTIPLIER * (32 - Integer.numberOfLeadingZeros(members.size() + 1));
+        List<Rumor> chosen = rumors.values().stream()
+                .sorted(Comparator.comparingInt(rumor -> rumor.sent))
+                .limit(MAX_PIGGYBACK)
+                .toList();
+        StringBuilder builder = new StringBuilder();
+        for (Rumor rumor : chosen) {
+            builder.append(RECORD).append(encode(rumor.update));
+            if (++rumor.sent >= limit) rumors.remove(rumor.update.address());
+        }
+        return builder.toString();
+    }
+
+    private void send(Message.Type type, InetAddress to, String header) {
+        outbox.add(new MessageBuilder()
+                .setType(type)
+                .setContent(header + piggyback())
+                .setAddress(to)
+                .build());
+    }
+
+    static String encode(Update update) {
+        String address = update.address() == null ? "" : update.address().getHostAddress();
+        return address + FIELD + update.username() + FIELD + update.status() + FIELD + update.incarnation() + FIELD + update.state();
+    }
+
+    static Update decode(String record) throws InvalidMessageException {
+        String[] fields = record.split(String.valueOf(FIELD), -1);
+        if (fields.length != 5) throw new InvalidMessageException("Invalid membership update");
+        try {
+            InetAddress address = fields[0].isEmpty() ? null : Network.parseLiteral(fields[0]);
+            return new Update(address, fields[1], User.Status.valueOf(fields[2]), Long.parseLong(fields[3]), State.valueOf(fields[4]));
+        } catch (IllegalArgumentException | UnknownHostException ex) {
+            throw new InvalidMessageException("Invalid membership update");
+        }
+    }
+
+}
@@ -0,0 +1,7 @@
+package net.chatsystem.network.exceptions;
+
+public class OutboundQueueFullException extends Exception {
+    public OutboundQueueFullException() {
+        super("Outbound queue is full");
+    }
+}
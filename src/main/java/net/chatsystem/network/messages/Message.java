@@ -2,14 +2,14 @@ package net.chatsystem.network.messages;
 
 import net.chatsystem.models.Contact;
 import net.chatsystem.models.ContactList;
-import net.chatsystem.models.User;
+import net.chatsystem.network.Network;
 import net.chatsystem.network.exceptions.InvalidMessageException;
 import net.chatsystem.network.exceptions.UnknownSenderException;
 
 import java.net.InetAddress;
-import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
-import java.nio.charset.StandardCharsets;
+import java.nio.charset.Charset;
+import java.util.List;
 
 public class Message {
 
@@ -27,17 +27,48 @@ public class Message {
         // tcp
         CHAT_IDENTIFY,
         CHAT_MESSAGE,
+        CHAT_BATCH, // several length-prefixed messages in a single frame
+
+        // udp, after the others so that their ordinals don't change, only ever sent to peers that advertised V2
+        ROSTER_REQUEST,
+        ROSTER_SNAPSHOT, // one chunk of the sender's contacts
+        PING, // gossip membership probes, carrying membership updates
+        PING_REQ,
+        PING_ACK,
 
     }
 
     private final Type type;
-    private final String content;
+    private String content; // decoded on first use for parsed messages
+    private final ByteBuffer encodedContent; // slice of the buffer a message was parsed from, null otherwise
+    private final Charset charset;
     private final InetAddress address;
+    private final long id; // 0 when the sender did not set one
+    private final long timestamp; // milliseconds since the epoch, 0 when the sender did not set one
 
     public Message(Type type, String content, InetAddress address) {
+        this(type, content, address, 0, 0);
+    }
+
+    public Message(Type type, String content, InetAddress address, long id, long timestamp) {
         this.type = type;
         this.content = content;
+        this.encodedContent = null;
+        this.charset = null;
         this.address = address;
+        this.id = id;
+        this.timestamp = timestamp;
+    }
+
+    // parsed message, whose content is only decoded if someone asks for it
+    Message(Type type, ByteBuffer encodedContent, Charset charset, InetAddress address, long id, long timestamp) {
+        this.type = type;
+        this.content = encodedContent.hasRemaining() ? null : "";
+        this.encodedContent = encodedContent;
+        this.charset = charset;
+        this.address = address;
+        this.id = id;
+        this.timestamp = timestamp;
     }
 
     public Type getType() {
@@ -45,53 +76,115 @@ public class Message {
     }
 
     public String getContent() {
-        return content;
+        String decoded = content;
+        if (decoded == null) {
+            ByteBuffer encoded = encodedContent.duplicate();
+            decoded = encoded.hasArray()
+                    ? new String(encoded.array(), encoded.arrayOffset() + encoded.position(), encoded.remaining(), charset)
+                    : charset.decode(encoded).toString();
+            content = decoded; // racing decoders all produce the same string
+        }
+        return decoded;
+    }
+
+    /*
+     * Parsed messages may still point into the buffer they were received in, which is reused for the next packet.
+     * Anything keeping a message after the dispatch that handed it over must keep detach() instead.
+     */
+    public Message detach() {
+        if (encodedContent == null || content != null) return new Message(type, getContent(), address, id, timestamp);
+        ByteBuffer copy = ByteBuffer.allocate(encodedContent.remaining());
+        copy.put(encodedContent.duplicate()).flip();
+        return new Message(type, copy, charset, address, id, timestamp);
     }
 
     public InetAddress getAddress() {
         return address;
     }
 
+    public long getId() {
+        return id;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    // the format is detected from the buffer, see WireFormat
     public static Message parse(byte[] buffer, int length, InetAddress address) throws InvalidMessageException {
-        try {
+        return parse(buffer, 0, length, address);
+    }
 
-            if (length < Integer.BYTES) throw new InvalidMessageException("Length of buffer needs to be at least " + Integer.BYTES); 
+    public static Message parse(byte[] buffer, int offset, int length, InetAddress address) throws InvalidMessageException {
+        return parse(ByteBuffer.wrap(buffer, offset, length), address);
+    }
 
-            ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, length);
+    // the message spans the buffer's remaining bytes and is backed by them, see detach()
+    public static Message parse(ByteBuffer buffer, InetAddress address) throws InvalidMessageException {
+        return WireFormat.decode(buffer, address);
+    }
 
-            // Read message type (4 bytes)
-            int typeOrdinal = byteBuffer.getInt();
-            Message.Type type = Message.Type.values()[typeOrdinal];
+    public byte[] toBuffer() {
+        return toBuffer(WireFormat.V1);
+    }
 
-            // Remaining bytes = UTF-16LE content
-            int remaining = byteBuffer.remaining();
-            byte[] contentBytes = new byte[remaining];
-            byteBuffer.get(contentBytes);
-            String content = new String(contentBytes, StandardCharsets.UTF_16LE);
+    public byte[] toBuffer(WireFormat format) {
+        return format.encode(this);
+    }
 
-            return new Message(type, content, address);
+    // type of the message in the buffer, without decoding the rest
+    public static Type peekType(byte[] buffer, int length) throws InvalidMessageException {
+        return peekType(ByteBuffer.wrap(buffer, 0, length));
+    }
 
-        } catch (IndexOutOfBoundsException | IllegalArgumentException | BufferUnderflowException e) {
-            throw new InvalidMessageException("Invalid message format: " + e.getMessage());
-        }
+    public static Type peekType(ByteBuffer buffer) throws InvalidMessageException {
+        return WireFormat.decodeType(buffer);
     }
 
-    public byte[] toBuffer() {
-        byte[] contentBytes = content.getBytes(StandardCharsets.UTF_16LE);
+    // the messages packed in a CHAT_BATCH buffer, in order
+    public static List<Message> parseBatch(byte[] buffer, int length, InetAddress address) throws InvalidMessageException {
+        return parseBatch(ByteBuffer.wrap(buffer, 0, length), address);
+    }
+
+    public static List<Message> parseBatch(ByteBuffer buffer, InetAddress address) throws InvalidMessageException {
+        return WireFormat.decodeBatch(buffer, address);
+    }
 
-        ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES + contentBytes.length);
-        buffer.putInt(type.ordinal());
-        buffer.put(contentBytes);
+    // size of toBuffer(), without encoding anything
+    public int encodedLength() {
+        return encodedLength(WireFormat.V1);
+    }
+
+    public int encodedLength(WireFormat format) {
+        return format.encodedLength(this);
+    }
+
+    // toBuffer() prefixed with its length, in a single array, as sent over chat connections
+    public byte[] toFrame() {
+        return toFrame(WireFormat.V1);
+    }
+
+    public byte[] toFrame(WireFormat format) {
+        return format.encodeFrame(this);
+    }
+
+    // one CHAT_BATCH frame carrying all the given messages, each one prefixed with its length
+    public static byte[] toBatchFrame(List<Message> messages) {
+        return toBatchFrame(messages, WireFormat.V1);
+    }
 
-        return buffer.array();
+    public static byte[] toBatchFrame(List<Message> messages, WireFormat format) {
+        return format.encodeBatchFrame(messages);
     }
 
     public boolean isFromMe() {
-        return this.address.equals(User.getInstance().getAddress());
+        return Network.isLocalAddress(this.address); // any of our interfaces, a broadcast may come back on any of them
     }
 
     public Contact getSender() throws UnknownSenderException {
-        return ContactList.getInstance().getContactByIP(getAddress()).orElseThrow(UnknownSenderException::new);
+        Contact sender = ContactList.getInstance().findContactByIP(getAddress());
+        if (sender == null) throw new UnknownSenderException();
+        return sender;
     }
 
 }
@@ -9,6 +9,8 @@ public class MessageBuilder {
     private Message.Type type = Message.Type.NONE;
     private String content = "";
     private InetAddress address;
+    private long id = 0;
+    private long timestamp = 0;
 
     public MessageBuilder setAddress(InetAddress address) {
         this.address = address;
@@ -25,12 +27,22 @@ public class MessageBuilder {
         return this;
     }
 
+    public MessageBuilder setId(long id) {
+        this.id = id;
+        return this;
+    }
+
+    public MessageBuilder setTimestamp(long timestamp) {
+        this.timestamp = timestamp;
+        return this;
+    }
+
     public MessageBuilder setRecipient(Contact contact) {
         this.address = contact.getAddress();
         return this;
     }
 
     public Message build() {
-        return new Message(type, content, address);
+        return new Message(type, content, address, id, timestamp);
     }
 }
@@ -0,0 +1,47 @@
+package net.chatsystem.network.messages;
+
+import net.chatsystem.network.exceptions.InvalidMessageException;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Unsigned LEB128 integers: 7 bits per byte, low bits first, the high bit set on every byte but the last.
+ */
+final class Varint {
+
+    private static final int MAX_BYTES = 10; // enough for any long
+
+    private Varint() {}
+
+    static int size(long value) {
+        int size = 1;
+        while ((value >>>= 7) != 0) size++;
+        return size;
+    }
+
+    static void put(ByteBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    static long get(ByteBuffer buffer) throws InvalidMessageException {
+        long value = 0;
+        for (int i = 0; i < MAX_BYTES; i++) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7F) << (7 * i);
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new InvalidMessageException("Varint is too long");
+    }
+
+    // a varint that has to fit in a non-negative int, as lengths do
+    static int getLength(ByteBuffer buffer) throws InvalidMessageException {
+        long value = get(buffer);
+        if (value < 0 || value > Integer.MAX_VALUE) throw new InvalidMessageException("Invalid length " + value);
+        return (int) value;
+    }
+
+}
@@ -0,0 +1,355 @@
+package net.chatsystem.network.messages;
+
+import net.chatsystem.network.exceptions.InvalidMessageException;
+
+import java.net.InetAddress;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Byte layouts a {@link Message} can be written in.
+ * The first byte tells them apart: v1 starts with a big-endian int type ordinal, so always with 0,
+ * later formats start with their version number. Receivers read every format, senders only use v2
+ * with peers that announced it, and v1 otherwise.
+ */
+public enum WireFormat {
+
+    // [int type ordinal][UTF-16LE content]
+    V1(1, StandardCharsets.UTF_16LE) {
+        @Override
+        int length(Message message, int contentLength) {
+            return Integer.BYTES + contentLength;
+        }
+
+        @Override
+        int contentLength(String content) {
+            return content.length() * 2; // UTF-16 code units are 2 bytes each
+        }
+
+        @Override
+        void write(Message message, byte[] content, ByteBuffer buffer) {
+            buffer.putInt(message.getType().ordinal());
+            buffer.put(content);
+        }
+
+        @Override
+        Message read(ByteBuffer buffer, InetAddress address) throws InvalidMessageException {
+            Message.Type type = type(buffer.getInt());
+            return new Message(type, buffer.slice(), charset, address, 0, 0);
+        }
+
+        @Override
+        Message.Type peekType(ByteBuffer buffer) throws InvalidMessageException {
+            return type(buffer.getInt(buffer.position()));
+        }
+
+        @Override
+        int batchHeaderLength() {
+            return Integer.BYTES;
+        }
+
+        @Override
+        void writeBatchHeader(ByteBuffer buffer) {
+            buffer.putInt(Message.Type.CHAT_BATCH.ordinal());
+        }
+
+        @Override
+        void skipBatchHeader(ByteBuffer buffer) {
+            buffer.getInt();
+        }
+
+        @Override
+        int lengthSize(int length) {
+            return Integer.BYTES;
+        }
+
+        @Override
+        void putLength(ByteBuffer buffer, int length) {
+            buffer.putInt(length);
+        }
+
+        @Override
+        int getLength(ByteBuffer buffer) {
+            return buffer.getInt();
+        }
+    },
+
+    // [byte version][byte type][byte flags][varint id][varint timestamp][varint content length][UTF-8 content]
+    // id and timestamp are only present when their flag is set
+    V2(2, StandardCharsets.UTF_8) {
+        @Override
+        int length(Message message, int contentLength) {
+            int length = 3 + Varint.size(contentLength) + contentLength;
+            if (message.getId() != 0) length += Varint.size(message.getId());
+            if (message.getTimestamp() != 0) length += Varint.size(message.getTimestamp());
+            return length;
+        }
+
+        @Override
+        int contentLength(String content) {
+            int length = 0;
+            for (int i = 0; i < content.length(); i++) {
+                char c = content.charAt(i);
+                if (c < 0x80) length += 1;
+                else if (c < 0x800) length += 2;
+                else if (Character.isHighSurrogate(c) && i + 1 < content.length() && Character.isLowSurrogate(content.charAt(i + 1))) {
+                    length += 4;
+                    i++;
+                } else if (Character.isSurrogate(c)) length += 1; // unpaired, replaced by '?'
+                else length += 3;
+            }
+            return length;
+        }
+
+        @Override
+        void write(Message message, byte[] content, ByteBuffer buffer) {
+            int flags = (message.getId() != 0 ? FLAG_ID : 0) | (message.getTimestamp() != 0 ? FLAG_TIMESTAMP : 0);
+            buffer.put((byte) version);
+            buffer.put((byte) message.getType().ordinal());
+            buffer.put((byte) flags);
+            if ((flags & FLAG_ID) != 0) Varint.put(buffer, message.getId());
+            if ((flags & FLAG_TIMESTAMP) != 0) Varint.put(buffer, message.getTimestamp());
+            Varint.put(buffer, content.length);
+            buffer.put(content);
+        }
+
+        @Override
+        Message read(ByteBuffer buffer, InetAddress address) throws InvalidMessageException {
+            buffer.get(); // version, already checked
+            Message.Type type = type(buffer.get());
+            int flags = buffer.get();
+            if ((flags & ~(FLAG_ID | FLAG_TIMESTAMP)) != 0) throw new InvalidMessageException("Unknown flags " + flags);
+            long id = (flags & FLAG_ID) != 0 ? Varint.get(buffer) : 0;
+            long timestamp = (flags & FLAG_TIMESTAMP) != 0 ? Varint.get(buffer) : 0;
+            int contentLength = Varint.getLength(buffer);
+            if (contentLength != buffer.remaining()) throw new InvalidMessageException("Invalid content length " + contentLength);
+            return new Message(type, buffer.slice(), charset, address, id, timestamp);
+        }
+
+        @Override
+        Message.Type peekType(ByteBuffer buffer) throws InvalidMessageException {
+            return type(buffer.get(buffer.position() + 1));
+        }
+
+        @Override
+        int batchHeaderLength() {
+            return 3;
+        }
+
+        @Override
+        void writeBatchHeader(ByteBuffer buffer) {
+            buffer.put((byte) version);
+            buffer.put((byte) Message.Type.CHAT_BATCH.ordinal());
+            buffer.put((byte) 0);
+        }
+
+        @Override
+        void skipBatchHeader(ByteBuffer buffer) throws InvalidMessageException {
+            buffer.get();
+            buffer.get();
+            if (buffer.get() != 0) throw new InvalidMessageException("Unexpected flags on a batch");
+        }
+
+        @Override
+        int lengthSize(int length) {
+            return Varint.size(length);
+        }
+
+        @Override
+        void putLength(ByteBuffer buffer, int length) {
+            Varint.put(buffer, length);
+        }
+
+        @Override
+        int getLength(ByteBuffer buffer) throws InvalidMessageException {
+            return Varint.getLength(buffer);
+        }
+    };
+
+    public static final WireFormat LATEST = V2;
+
+    private static final int FLAG_ID = 1;
+    private static final int FLAG_TIMESTAMP = 1 << 1;
+
+    final int version;
+    final Charset charset;
+
+    WireFormat(int version, Charset charset) {
+        this.version = version;
+        this.charset = charset;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    // size of the encoded message, given the size of its encoded content
+    abstract int length(Message message, int contentLength);
+
+    // size of the encoded content, without encoding it
+    abstract int contentLength(String content);
+
+    abstract void write(Message message, byte[] content, ByteBuffer buffer);
+
+    // reads a message spanning all the remaining bytes, its content stays in the buffer until asked for
+    abstract Message read(ByteBuffer buffer, InetAddress address) throws InvalidMessageException;
+
+    abstract Message.Type peekType(ByteBuffer buffer) throws InvalidMessageException;
+
+    abstract int batchHeaderLength();
+
+    abstract void writeBatchHeader(ByteBuffer buffer);
+
+    abstract void skipBatchHeader(ByteBuffer buffer) throws InvalidMessageException;
+
+    // lengths of the messages packed in a batch
+    abstract int lengthSize(int length);
+
+    abstract void putLength(ByteBuffer buffer, int length);
+
+    abstract int getLength(ByteBuffer buffer) throws InvalidMessageException;
+
+    // format of the message in the buffer, from its first byte
+    public static WireFormat of(byte[] buffer, int offset, int length) throws InvalidMessageException {
+        return of(ByteBuffer.wrap(buffer, offset, length));
+    }
+
+    public static WireFormat of(ByteBuffer buffer) throws InvalidMessageException {
+        if (!buffer.hasRemaining()) throw new InvalidMessageException("Empty buffer");
+        byte first = buffer.get(buffer.position());
+        return switch (first) {
+            case 0 -> V1;
+            case 2 -> V2;
+            default -> throw new InvalidMessageException("Unsupported protocol version " + first);
+        };
+    }
+
+    public static WireFormat ofVersion(int version) {
+        for (WireFormat format : values()) {
+            if (format.version == version) return format;
+        }
+        throw new IllegalArgumentException("Unknown protocol version " + version);
+    }
+
+    byte[] encode(Message message) {
+        byte[] content = message.getContent().getBytes(charset);
+        ByteBuffer buffer = ByteBuffer.allocate(length(message, content.length));
+        write(message, content, buffer);
+        return buffer.array();
+    }
+
+    // encode() prefixed with its int length, as sent over chat connections
+    byte[] encodeFrame(Message message) {
+        byte[] content = message.getContent().getBytes(charset);
+        int length = length(message, content.length);
+        ByteBuffer frame = ByteBuffer.allocate(Integer.BYTES + length);
+        frame.putInt(length);
+        write(message, content, frame);
+        return frame.array();
+    }
+
+    byte[] encodeBatchFrame(List<Message> messages) {
+        List<byte[]> buffers = new ArrayList<>(messages.size());
+        int length = batchHeaderLength();
+        for (Message message : messages) {
+            byte[] buffer = encode(message);
+            buffers.add(buffer);
+            length += lengthSize(buffer.length) + buffer.length;
+        }
+
+        ByteBuffer frame = ByteBuffer.allocate(Integer.BYTES + length);
+        frame.putInt(length);
+        writeBatchHeader(frame);
+        for (byte[] buffer : buffers) {
+            putLength(frame, buffer.length);
+            frame.put(buffer);
+        }
+
+        return frame.array();
+    }
+
+    int encodedLength(Message message) {
+        return length(message, contentLength(message.getContent()));
+    }
+
+    // the buffer's position and limit delimit the message, neither is moved
+    static Message decode(ByteBuffer buffer, InetAddress address) throws InvalidMessageException {
+        WireFormat format = of(buffer);
+        try {
+            return format.read(buffer.slice(), address);
+        } catch (IndexOutOfBoundsException | IllegalArgumentException | BufferUnderflowException e) {
+            throw new InvalidMessageException("Invalid message format: " + e.getMessage());
+        }
+    }
+
+    static Message.Type decodeType(ByteBuffer buffer) throws InvalidMessageException {
+        WireFormat format = of(buffer);
+        try {
+            return format.peekType(buffer);
+        } catch (IndexOutOfBoundsException e) {
+            throw new InvalidMessageException("Invalid message format: " + e.getMessage());
+        }
+    }
+
+    // batched messages are always in the same format as their batch
+    static List<Message> decodeBatch(ByteBuffer buffer, InetAddress address) throws InvalidMessageException {
+        WireFormat format = of(buffer);
+        if (decodeType(buffer) != Message.Type.CHAT_BATCH) throw new InvalidMessageException("Not a batch");
+        try {
+            ByteBuffer batch = buffer.slice();
+            format.skipBatchHeader(batch);
+            List<Message> messages = new ArrayList<>();
+            while (batch.hasRemaining()) {
+                int messageLength = format.getLength(batch);
+                if (messageLength <= 0 || messageLength > batch.remaining()) {
+                    throw new InvalidMessageException("Invalid batched message length " + messageLength);
+                }
+                ByteBuffer slice = batch.slice(batch.position(), messageLength);
+                if (of(slice) != format) throw new InvalidMessageException("Mixed formats in batch");
+                Message message = format.read(slice, address);
+                if (message.getType() == Message.Type.CHAT_BATCH) throw new InvalidMessageException("Nested batch");
+                messages.add(message);
+                batch.position(batch.position() + messageLength);
+            }
+            return messages;
+        } catch (IndexOutOfBoundsException | IllegalArgumentException | BufferUnderflowException e) {
+            throw new InvalidMessageException("Invalid batch format: " + e.getMessage());
+        }
+    }
+
+    private static Message.Type type(int ordinal) throws InvalidMessageException {
+        if (ordinal < 0 || ordinal >= Message.Type.values().length) throw new InvalidMessageException("Invalid message type " + ordinal);
+        return Message.Type.values()[ordinal];
+    }
+
+    /*
+     * DISCOVER_ME and ACKNOWLEDGE_DISCOVER carry the username followed by one control character holding the
+     * newest version the sender reads. Usernames are trimmed when registered, so older peers just drop it.
+     */
+
+    public static String advertise(String username) {
+        return username + (char) LATEST.version;
+    }
+
+    // V1 when the peer did not advertise anything
+    public static WireFormat advertisedBy(String content) {
+        if (!advertises(content)) return V1;
+        int version = Math.min(content.charAt(content.length() - 1), LATEST.version); // newer peers still read what we write
+        return ofVersion(version);
+    }
+
+    public static String stripAdvertisement(String content) {
+        return advertises(content) ? content.substring(0, content.length() - 1) : content;
+    }
+
+    private static boolean advertises(String content) {
+        if (content.isEmpty()) return false;
+        char last = content.charAt(content.length() - 1);
+        return last > 0 && last < ' ';
+    }
+
+}
@@ -0,0 +1,182 @@
+package net.chatsystem.observer;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Hands events from the network threads to the observers without ever running an observer on them.
+ * Every subscriber has its own bounded queue, drained in order on a thread of the shared dispatch executor,
+ * so a slow observer only delays (and, once its queue is full, loses) its own events.
+ * Subscribers are indexed by the kinds of events they handle, in arrays that are copied on every
+ * (rare) subscription change, so that publishing never locks and only reaches interested observers.
+ */
+public class EventBus {
+
+    public static int QUEUE_CAPACITY = 1024;
+
+    private static final AtomicInteger threadCount = new AtomicInteger();
+    private static final ExecutorService DISPATCHER = Executors.newCachedThreadPool(task -> {
+        Thread thread = new Thread(task, "event-dispatch-" + threadCount.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final Subscriber[] NONE = new Subscriber[0];
+
+    private final int capacity;
+    private volatile Subscriber[] subscribers = NONE;
+    private volatile Subscriber[][] subscribersByKind = new Subscriber[EventKind.values().length][];
+
+    {
+        Arrays.fill(subscribersByKind, NONE);
+    }
+
+    public EventBus() {
+        this(QUEUE_CAPACITY);
+    }
+
+    public EventBus(int capacity) {
+        if (capacity <= 0) throw new IllegalArgumentException("Capacity must be positive");
+        this.capacity = capacity;
+    }
+
+    // subscribes to the callbacks the observer overrides
+    public Subscriber subscribe(IObserver observer) {
+        return subscribe(observer, EventKind.handledBy(observer));
+    }
+
+    public synchronized Subscriber subscribe(IObserver observer, Set<EventKind> kinds) {
+        Subscriber subscriber = new Subscriber(observer, kinds, capacity);
+        Subscriber[][] byKind = subscribersByKind.clone();
+        for (EventKind kind : kinds) byKind[kind.ordinal()] = append(byKind[kind.ordinal()], subscriber);
+        subscribersByKind = byKind;
+        subscribers = append(subscribers, subscriber);
+        return subscriber;
+    }
+
+    public synchronized void unsubscribe(IObserver observer) {
+        Subscriber[][] byKind = subscribersByKind.clone();
+        for (int i = 0; i < byKind.length; i++) byKind[i] = remove(byKind[i], observer);
+        subscribersByKind = byKind;
+        subscribers = remove(subscribers, observer);
+    }
+
+    public boolean hasSubscribers(EventKind kind) {
+        return subscribersByKind[kind.ordinal()].length > 0;
+    }
+
+    // never blocks, the event is dropped for subscribers whose queue is full
+    public void publish(EventKind kind, Consumer<IObserver> event) {
+        for (Subscriber subscriber : subscribersByKind[kind.ordinal()]) subscriber.enqueue(event);
+    }
+
+    public List<Subscriber> getSubscribers() {
+        return List.of(subscribers);
+    }
+
+    private static Subscriber[] append(Subscriber[] subscribers, Subscriber subscriber) {
+        Subscriber[] copy = Arrays.copyOf(subscribers, subscribers.length + 1);
+        copy[subscribers.length] = subscriber;
+        return copy;
+    }
+
+    private static Subscriber[] remove(Subscriber[] subscribers, IObserver observer) {
+        return Arrays.stream(subscribers).filter(subscriber -> subscriber.observer != observer).toArray(Subscriber[]::new);
+    }
+
+    public static class Subscriber {
+
+        private final IObserver observer;
+        private final Set<EventKind> kinds;
+        private final BlockingQueue<Consumer<IObserver>> queue;
+        private final AtomicBoolean scheduled = new AtomicBoolean(false); // a drain is queued or running
+        private final AtomicLong delivered = new AtomicLong();
+        private final AtomicLong dropped = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private volatile int maxLag = 0;
+
+        private Subscriber(IObserver observer, Set<EventKind> kinds, int capacity) {
+            this.observer = observer;
+            this.kinds = Set.copyOf(kinds);
+            this.queue = new ArrayBlockingQueue<>(capacity);
+        }
+
+        private void enqueue(Consumer<IObserver> event) {
+            if (!queue.offer(event)) {
+                dropped.incrementAndGet();
+                return;
+            }
+            int lag = queue.size();
+            if (lag > maxLag) maxLag = lag; // racy, but only ever a metric
+            schedule();
+        }
+
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true)) DISPATCHER.execute(this::drain);
+        }
+
+        private void drain() {
+            Consumer<IObserver> event;
+            while ((event = queue.poll()) != null) {
+                try {
+                    event.accept(observer);
+                    delivered.incrementAndGet();
+                } catch (RuntimeException exception) {
+                    failed.incrementAndGet();
+                    System.out.println("Observer " + observer.getClass().getSimpleName() + " failed: " + exception);
+                }
+            }
+            scheduled.set(false);
+            // an event published between the last poll and the reset found us still scheduled
+            if (!queue.isEmpty()) schedule();
+        }
+
+        public IObserver getObserver() {
+            return observer;
+        }
+
+        public Set<EventKind> getKinds() {
+            return kinds;
+        }
+
+        // events waiting to be delivered
+        public int getLag() {
+            return queue.size();
+        }
+
+        // highest lag seen so far
+        public int getMaxLag() {
+            return maxLag;
+        }
+
+        public long getDelivered() {
+            return delivered.get();
+        }
+
+        // events lost because the queue was full
+        public long getDropped() {
+            return dropped.get();
+        }
+
+        // events whose callback threw
+        public long getFailed() {
+            return failed.get();
+        }
+
+        @Override
+        public String toString() {
+            return observer.getClass().getSimpleName() + " lag=" + getLag() + " maxLag=" + maxLag
+                    + " delivered=" + getDelivered() + " dropped=" + getDropped() + " failed=" + getFailed();
+        }
+    }
+
+}
@@ -0,0 +1,60 @@
+package net.chatsystem.observer;
+
+import net.chatsystem.models.Contact;
+import net.chatsystem.models.User;
+import net.chatsystem.network.messages.Message;
+
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * One kind of event per {@link IObserver} callback, so that events are only handed to the observers that handle them.
+ */
+public enum EventKind {
+
+    // general
+    MESSAGE("onMessage", Message.class),
+
+    // discovery
+    DISCOVER_CONTACT("onDiscoverContact", Contact.class),
+    USERNAME_TAKEN("onUsernameTaken"),
+    CONTACT_DISCONNECT("onContactDisconnect", Contact.class),
+    CONTACT_USERNAME_CHANGE("onContactUsernameChange", Contact.class, String.class, String.class),
+    CONTACT_STATUS_UPDATE("onContactStatusUpdate", Contact.class),
+    ROSTER_UPDATE("onRosterUpdate", List.class),
+    LOGGED_IN("onLoggedIn", User.class),
+    USERNAME_CHANGED("onUsernameChanged", String.class),
+    STATUS_CHANGED("onStatusChanged", User.Status.class),
+
+    // chat
+    CHAT_INITIATE("onChatInitiate", Contact.class),
+    CHAT_MESSAGE("onChatMessage", Contact.class, String.class),
+    CHAT_CLOSE("onChatClose", Contact.class);
+
+    private final String method;
+    private final Class<?>[] parameters;
+
+    EventKind(String method, Class<?>... parameters) {
+        this.method = method;
+        this.parameters = parameters;
+    }
+
+    // the callbacks the observer overrides, the others are IObserver's no-op defaults
+    public static Set<EventKind> handledBy(IObserver observer) {
+        Set<EventKind> kinds = EnumSet.noneOf(EventKind.class);
+        for (EventKind kind : values()) {
+            try {
+                if (observer.getClass().getMethod(kind.method, kind.parameters).getDeclaringClass() != IObserver.class) {
+                    kinds.add(kind);
+                }
+            } catch (NoSuchMethodException e) {
+                throw new IllegalStateException("IObserver has no " + kind.method, e);
+            }
+        }
+        // the default onRosterUpdate hands every contact to onDiscoverContact
+        if (kinds.contains(DISCOVER_CONTACT)) kinds.add(ROSTER_UPDATE);
+        return kinds;
+    }
+
+}
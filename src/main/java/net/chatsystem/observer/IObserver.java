@@ -4,9 +4,12 @@ import net.chatsystem.models.Contact;
 import net.chatsystem.models.User;
 import net.chatsystem.network.messages.Message;
 
+import java.util.List;
+
+// observers only receive the events whose callback they override, see EventKind
 public interface IObserver {
 
-    // general
+    // general, messages are detached before they are delivered, observers may keep them
     default void onMessage(Message message) {};
 
     // discovery
@@ -15,6 +18,7 @@ public interface IObserver {
     default void onContactDisconnect(Contact contact) {};
     default void onContactUsernameChange(Contact contact, String oldUsername, String newUsername) {};
     default void onContactStatusUpdate(Contact contact) {}
+    default void onRosterUpdate(List<Contact> contacts) { contacts.forEach(this::onDiscoverContact); } // many contacts at once
     default void onLoggedIn(User as) {};
     default void onUsernameChanged(String newUsername) {}
     default void onStatusChanged(User.Status newStatus) {}
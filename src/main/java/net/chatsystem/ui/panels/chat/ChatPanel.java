@@ -2,6 +2,7 @@ package net.chatsystem.ui.panels.chat;
 
 import net.chatsystem.models.Contact;
 import net.chatsystem.models.User;
+import net.chatsystem.network.AddressIndex;
 import net.chatsystem.network.chat.ChatServer;
 import net.chatsystem.network.chat.ChatSession;
 import net.chatsystem.network.exceptions.RecipientOfflineException;
@@ -14,8 +15,7 @@ import javax.swing.border.EmptyBorder;
 import java.awt.*;
 import java.net.InetAddress;
 import java.time.Instant;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 public class ChatPanel extends JPanel implements IObserver {
 
@@ -28,7 +28,7 @@ public class ChatPanel extends JPanel implements IObserver {
 
     private final JPanel cardContainer;
     private final CardLayout cardLayout;
-    private final Map<InetAddress, ChatCard> contactCards = new HashMap<>();
+    private final AddressIndex<ChatCard> contactCards = new AddressIndex<>();
     private Contact chattingWith;
 
     public Contact getChattingWith() {
@@ -146,14 +146,36 @@ public class ChatPanel extends JPanel implements IObserver {
         private void sendMessage() {
             String text = inputField.getText().trim();
             if (text.isEmpty()) return;
-
-            try {
-                // Attempt to open chat only when sending
-                if (!chat.isOpen()) {
-                    chat.attemptOpen();
+            inputField.setText(""); // now, whatever is typed while connecting belongs to the next message
+
+            // Attempt to open chat only when sending, without freezing the UI while connecting
+            CompletableFuture<Void> opened = chat.isOpen() ? CompletableFuture.completedFuture(null) : chat.attemptOpen();
+            opened.whenComplete((ok, failure) -> SwingUtilities.invokeLater(() -> {
+                if (failure == null) {
+                    send(text);
+                    return;
+                }
+                if (inputField.getText().isEmpty()) inputField.setText(text); // not sent: given back to retry, unless something new was typed meanwhile
+                if (failure instanceof RecipientOfflineException
+                        || failure.getCause() instanceof RecipientOfflineException) {
+                    JOptionPane.showMessageDialog(
+                            this,
+                            "User is currently offline.",
+                            "Cannot send message",
+                            JOptionPane.INFORMATION_MESSAGE
+                    );
+                } else {
+                    showSendError();
                 }
+            }));
+        }
 
-                chat.send(text);
+        private void send(String text) {
+            try {
+                chat.send(text).exceptionally(failure -> {
+                    SwingUtilities.invokeLater(this::showSendError);
+                    return null;
+                });
 
                 messagesPanel.addMessage(
                         text,
@@ -162,25 +184,19 @@ public class ChatPanel extends JPanel implements IObserver {
                         User.getInstance()
                 );
 
-                inputField.setText("");
-
-            } catch (RecipientOfflineException e) {
-                JOptionPane.showMessageDialog(
-                        this,
-                        "User is currently offline.",
-                        "Cannot send message",
-                        JOptionPane.INFORMATION_MESSAGE
-                );
-
             } catch (Exception e) {
-                JOptionPane.showMessageDialog(
-                        this,
-                        "Failed to send message.",
-                        "Error",
-                        JOptionPane.ERROR_MESSAGE
-                );
+                showSendError();
             }
         }
 
+        private void showSendError() {
+            JOptionPane.showMessageDialog(
+                    this,
+                    "Failed to send message.",
+                    "Error",
+                    JOptionPane.ERROR_MESSAGE
+            );
+        }
+
     }
 }
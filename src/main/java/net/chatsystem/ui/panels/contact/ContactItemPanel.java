@@ -1,5 +1,6 @@
 package net.chatsystem.ui.panels.contact;
 
+import net.chatsystem.models.Contact;
 import net.chatsystem.models.User;
 import net.chatsystem.ui.colors.Palette;
 import net.chatsystem.ui.fonts.FontRepository;
@@ -53,6 +54,8 @@ public class ContactItemPanel extends JPanel {
         statusLabel.setFont(FontRepository.LabelFont.deriveFont(12f));
         statusLabel.setForeground(Palette.statusToColor(this.user.getStatus()));
 
+        if (user instanceof Contact contact && contact.isStale()) showStale(contact);
+
         textPanel.add(Box.createVerticalGlue());
         textPanel.add(nameLabel);
         textPanel.add(statusLabel);
@@ -98,12 +101,31 @@ public class ContactItemPanel extends JPanel {
         boolean isMe = this.user.getAddress().equals(User.getInstance().getAddress());
         if (isMe) usernameBuilder.append(" (you)");
         nameLabel.setText(usernameBuilder.toString());
-        statusLabel.setText(User.getStatusName(this.user.getStatus(), isMe));
         statusLabel.setFont(FontRepository.LabelFont.deriveFont(12f));
+        if (this.user instanceof Contact contact && contact.isStale()) {
+            showStale(contact);
+            return;
+        }
+        statusLabel.setText(User.getStatusName(this.user.getStatus(), isMe));
         statusLabel.setForeground(Palette.statusToColor(this.user.getStatus()));
 
     }
 
+    // known from the roster cache, not seen on the network yet
+    private void showStale(Contact contact) {
+        statusLabel.setText("SEEN " + ago(contact.getLastSeen()) + ", " + User.getStatusName(contact.getCachedStatus(), false));
+        statusLabel.setForeground(Palette.statusToColor(contact.getCachedStatus()).darker().darker());
+    }
+
+    private static String ago(long millis) {
+        if (millis <= 0) return "LONG AGO";
+        long minutes = Math.max(0, System.currentTimeMillis() - millis) / 60_000;
+        if (minutes < 1) return "JUST NOW";
+        if (minutes < 60) return minutes + " MIN AGO";
+        if (minutes < 24 * 60) return minutes / 60 + " H AGO";
+        return minutes / (24 * 60) + " D AGO";
+    }
+
     public void setUsername(String username) {
         nameLabel.setText(username);
     }
@@ -2,7 +2,9 @@ package net.chatsystem.ui.panels.contact;
 
 import net.chatsystem.models.Contact;
 import net.chatsystem.models.ContactList;
+import net.chatsystem.models.RosterCache;
 import net.chatsystem.models.User;
+import net.chatsystem.network.AddressIndex;
 import net.chatsystem.network.chat.ChatServer;
 import net.chatsystem.network.discovery.DiscoveryServer;
 import net.chatsystem.observer.IObserver;
@@ -11,24 +13,33 @@ import net.chatsystem.ui.colors.Palette;
 import net.chatsystem.ui.fonts.FontRepository;
 import net.chatsystem.ui.panels.chat.ChatPanel;
 import net.chatsystem.ui.system.Tray;
+import net.chatsystem.ui.util.PanelUtilities;
 
 import javax.swing.*;
 import javax.swing.border.EmptyBorder;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import javax.swing.plaf.basic.BasicScrollBarUI;
 import java.awt.*;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
-import java.net.InetAddress;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class ContactsPanel extends JPanel implements IObserver {
 
     private final ContactItemPanel meCard;
     private final JPanel contactsListPanel;
+    private final JTextField filterField;
 
-    // map UUID -> ContactItemPanel
-    private final Map<InetAddress, ContactItemPanel> contactPanels = new HashMap<>();
+    // by contact address
+    private final AddressIndex<ContactItemPanel> contactPanels = new AddressIndex<>();
+    private long rosterVersion; // of the last roster change shown, on the event thread
+    private static final int FILTER_LIMIT = 200; // contacts shown while filtering
+    private final AtomicBoolean refreshPending = new AtomicBoolean();
 
     public ContactsPanel() {
 
@@ -73,16 +84,37 @@ public class ContactsPanel extends JPanel implements IObserver {
         contactsHeader.setFont(FontRepository.TitleFont.deriveFont(24f));
         contactsHeader.setForeground(Color.WHITE);
         contactsHeader.setBorder(new EmptyBorder(16, 0, 10, 0));
-        centerPanel.add(contactsHeader, BorderLayout.NORTH);
+        contactsHeader.setAlignmentX(Component.LEFT_ALIGNMENT);
+
+        filterField = PanelUtilities.createField("Search by the start of a name");
+        filterField.setAlignmentX(Component.LEFT_ALIGNMENT);
+        filterField.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) { applyFilter(); }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) { applyFilter(); }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) { applyFilter(); }
+        });
+
+        JPanel contactsTop = new JPanel();
+        contactsTop.setLayout(new BoxLayout(contactsTop, BoxLayout.Y_AXIS));
+        contactsTop.setBackground(Palette.APP_BACK);
+        contactsTop.setBorder(new EmptyBorder(0, 0, 10, 0));
+        contactsTop.add(contactsHeader);
+        contactsTop.add(filterField);
+        centerPanel.add(contactsTop, BorderLayout.NORTH);
 
         // Scrollable list
         contactsListPanel = new JPanel();
         contactsListPanel.setLayout(new BoxLayout(contactsListPanel, BoxLayout.Y_AXIS));
         contactsListPanel.setBackground(Palette.APP_BACK);
 
-        for (Contact c : ContactList.getInstance().getContacts()) {
-            addOrUpdateContactPanel(c);
-        }
+        ContactList.Snapshot roster = ContactList.getInstance().getSnapshot();
+        roster.contacts().forEach(this::addContactPanel);
+        rosterVersion = roster.version();
 
         JScrollPane contactScroll = new JScrollPane(contactsListPanel);
         contactScroll.setBorder(null);
@@ -95,34 +127,89 @@ public class ContactsPanel extends JPanel implements IObserver {
 
         DiscoveryServer.getInstance().addObserver(this);
         ChatServer.getInstance().addObserver(this);
+        RosterCache.loaded().thenRun(this::scheduleRefresh); // the cached contacts, if they came in after the snapshot
     }
 
     private ContactItemPanel chosenContactPanel;
 
-    private void addOrUpdateContactPanel(Contact contact) {
+    // however many roster events come in before the event thread gets to it, their changes are shown as one batch
+    private void scheduleRefresh() {
+        if (refreshPending.compareAndSet(false, true)) SwingUtilities.invokeLater(this::refresh);
+    }
 
-        if (contactPanels.containsKey(contact.getAddress())) {
-            ContactItemPanel panel = contactPanels.get(contact.getAddress());
-            panel.update();
-            panel.revalidate();
-            panel.repaint();
-            return;
+    private void refresh() {
+        refreshPending.set(false);
+        ContactList.Changes changes = ContactList.getInstance().changesSince(rosterVersion);
+        if (changes.isReset()) {
+            // too far behind for the log, start over from the latest roster
+            contactsListPanel.removeAll();
+            contactPanels.clear();
+            chosenContactPanel = null;
+            changes.snapshot().contacts().forEach(this::addContactPanel);
+        } else {
+            changes.changes().forEach(this::applyChange);
         }
+        rosterVersion = changes.version();
+        if (!filterField.getText().isBlank()) applyFilter();
+        contactsListPanel.revalidate();
+        contactsListPanel.repaint();
+    }
 
-        ContactItemPanel panel = createContactItemPanel(contact);
+    private void applyChange(ContactList.Change change) {
+        ContactItemPanel panel = contactPanels.get(change.contact().getAddress());
+        switch (change.kind()) {
+            case ADDED -> {
+                if (panel == null) addContactPanel(change.contact());
+                else panel.update();
+            }
+            case RENAMED -> {
+                if (panel != null) panel.setUsername(change.username());
+            }
+            case STATUS -> {
+                if (panel != null) panel.update();
+            }
+            case REMOVED -> {
+                if (panel == null) break;
+                int index = contactsListPanel.getComponentZOrder(panel);
+                contactsListPanel.remove(index + 1); // its strut
+                contactsListPanel.remove(index);
+                contactPanels.remove(change.contact().getAddress());
+                if (chosenContactPanel == panel) chosenContactPanel = null;
+            }
+        }
+    }
 
+    // the matches come from ContactList's username index, only the panels' visibility goes through the whole list
+    private void applyFilter() {
+        String prefix = filterField.getText().trim();
+        Set<ContactItemPanel> shown = Collections.newSetFromMap(new IdentityHashMap<>());
+        if (!prefix.isEmpty()) {
+            for (Contact match : ContactList.getInstance().search(prefix, FILTER_LIMIT)) {
+                ContactItemPanel panel = contactPanels.get(match.getAddress());
+                if (panel != null) shown.add(panel);
+            }
+        }
+        Component[] components = contactsListPanel.getComponents();
+        for (int i = 0; i + 1 < components.length; i += 2) { // every panel is followed by its strut
+            boolean visible = prefix.isEmpty() || shown.contains((ContactItemPanel) components[i]);
+            components[i].setVisible(visible);
+            components[i + 1].setVisible(visible);
+        }
+        contactsListPanel.revalidate();
+        contactsListPanel.repaint();
+    }
+
+    // laid out by the caller
+    private void addContactPanel(Contact contact) {
+        ContactItemPanel panel = createContactItemPanel(contact);
         contactPanels.put(contact.getAddress(), panel);
         contactsListPanel.add(panel);
         contactsListPanel.add(Box.createVerticalStrut(8));
-        contactsListPanel.revalidate();
-        contactsListPanel.repaint();
     }
 
     private ContactItemPanel getOrCreateContactItemPanel(Contact contact) {
-        if (contactPanels.containsKey(contact.getAddress())) {
-            return contactPanels.get(contact.getAddress());
-        }
-        return createContactItemPanel(contact);
+        ContactItemPanel panel = contactPanels.get(contact.getAddress());
+        return panel != null ? panel : createContactItemPanel(contact);
     }
 
     private ContactItemPanel createContactItemPanel(Contact contact) {
@@ -177,9 +264,12 @@ public class ContactsPanel extends JPanel implements IObserver {
 
     @Override
     public void onChatMessage(Contact from, String chat) {
-        ContactItemPanel panel = getOrCreateContactItemPanel(from);
-        if (panel.selected && !Tray.isInTray()) return; // don't do anything if we're chatting and not in tray
-        panel.incrementUnread();
+        // the panels are only ever touched on the EDT, like the refreshes
+        SwingUtilities.invokeLater(() -> {
+            ContactItemPanel panel = getOrCreateContactItemPanel(from);
+            if (panel.selected && !Tray.isInTray()) return; // don't do anything if we're chatting and not in tray
+            panel.incrementUnread();
+        });
     }
 
     @Override
@@ -198,38 +288,29 @@ public class ContactsPanel extends JPanel implements IObserver {
     }
 
     // ===== Observer callbacks =====
+    // the roster events only say that something changed, what did is read from ContactList's change log
     @Override
     public void onDiscoverContact(Contact contact) {
-        SwingUtilities.invokeLater(() -> addOrUpdateContactPanel(contact));
+        scheduleRefresh();
+    }
+
+    @Override
+    public void onRosterUpdate(List<Contact> contacts) {
+        scheduleRefresh();
     }
 
     @Override
     public void onContactStatusUpdate(Contact contact) {
-        SwingUtilities.invokeLater(() -> {
-            ContactItemPanel panel = contactPanels.get(contact.getAddress());
-            if (panel != null) {
-                panel.update();
-            }
-        });
+        scheduleRefresh();
     }
 
     @Override
     public void onContactUsernameChange(Contact contact, String oldUsername, String newUsername) {
-        SwingUtilities.invokeLater(() -> {
-            ContactItemPanel panel = contactPanels.get(contact.getAddress());
-            if (panel != null) {
-                panel.setUsername(newUsername);
-            }
-        });
+        scheduleRefresh();
     }
 
     @Override
     public void onContactDisconnect(Contact contact) {
-        SwingUtilities.invokeLater(() -> {
-            ContactItemPanel panel = contactPanels.get(contact.getAddress());
-            if (panel != null) {
-                panel.update();
-            }
-        });
+        scheduleRefresh();
     }
 }
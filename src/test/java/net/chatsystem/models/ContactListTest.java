@@ -7,7 +7,10 @@ import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
@@ -122,6 +125,151 @@ class ContactListTest {
         assertTrue(list.getContactByIP(addr1).isEmpty());
     }
 
+    @Test
+    @DisplayName("registerContacts merges a roster, skipping clashes and contacts already known")
+    void registerContactsMergesRoster() throws UsernameAlreadyTakenException, UnknownHostException {
+        list.registerContact("ivy", addr1);
+
+        // the sender's view of ivy is second-hand, ivy answered us directly
+        Contact secondHand = new Contact("ivy", addr1);
+        secondHand.setStatus(User.Status.OFFLINE);
+        Contact away = new Contact("jack", addr2);
+        away.setStatus(User.Status.AWAY);
+        Contact clash = new Contact("localUser", InetAddress.getByName("10.0.0.3"));
+
+        List<Contact> changed = list.registerContacts(List.of(secondHand, away, clash));
+        assertEquals(1, changed.size());
+        assertEquals(User.Status.ONLINE, list.getContactByIP(addr1).orElseThrow().getStatus());
+        assertEquals("jack", changed.get(0).getUsername());
+        assertEquals(User.Status.AWAY, list.getContactByIP(addr2).orElseThrow().getStatus());
+        assertEquals(2, list.getContacts().size());
+    }
+
+    @Test
+    @DisplayName("every change publishes a new snapshot, which readers keep as it was")
+    void snapshotsAreVersioned() throws UsernameAlreadyTakenException {
+        ContactList.Snapshot empty = list.getSnapshot();
+        list.registerContact("kate", addr1);
+        ContactList.Snapshot one = list.getSnapshot();
+        list.changeContactUsername(addr1, "kate2");
+        ContactList.Snapshot renamed = list.getSnapshot();
+
+        assertTrue(empty.contacts().isEmpty());
+        assertEquals(1, one.contacts().size());
+        assertTrue(one.version() > empty.version());
+        assertTrue(renamed.version() > one.version());
+        assertTrue(list.getContacts() == list.getContacts()); // not copied on read
+    }
+
+    @Test
+    @DisplayName("changesSince returns adds, renames, status changes and removals in order")
+    void changeFeed() throws UsernameAlreadyTakenException {
+        long since = list.getSnapshot().version();
+        Contact kate = list.registerContact("kate", addr1);
+        list.registerContact("lucy", addr2);
+        list.changeContactStatus(kate, User.Status.AWAY);
+        list.changeContactStatus(kate, User.Status.AWAY); // no change, nothing logged
+        list.changeContactUsername(addr1, "kate2");
+
+        ContactList.Changes changes = list.changesSince(since);
+        assertFalse(changes.isReset());
+        assertEquals(List.of(ContactList.Change.Kind.ADDED, ContactList.Change.Kind.ADDED,
+                ContactList.Change.Kind.STATUS, ContactList.Change.Kind.RENAMED),
+                changes.changes().stream().map(ContactList.Change::kind).toList());
+        assertEquals("kate", changes.changes().get(0).username());
+        assertEquals("kate2", changes.changes().get(3).username());
+        assertEquals(list.getSnapshot().version(), changes.version());
+        assertTrue(list.changesSince(changes.version()).changes().isEmpty());
+
+        list.flush();
+        ContactList.Changes removals = list.changesSince(changes.version());
+        assertEquals(2, removals.changes().size());
+        assertTrue(removals.changes().stream().allMatch(c -> c.kind() == ContactList.Change.Kind.REMOVED));
+    }
+
+    @Test
+    @DisplayName("a subscriber further behind than the log starts over from the snapshot")
+    void slowSubscriberGetsSnapshot() throws Exception {
+        long since = list.getSnapshot().version();
+        for (int i = 0; i < 1100; i++) {
+            list.registerContact("peer" + i, InetAddress.getByAddress(new byte[] {10, 3, (byte) (i >> 8), (byte) i}));
+        }
+        ContactList.Changes changes = list.changesSince(since);
+        assertTrue(changes.isReset());
+        assertEquals(1100, changes.snapshot().contacts().size());
+        assertEquals(changes.version(), changes.snapshot().version());
+
+        // close enough behind, the log still has it
+        assertEquals(10, list.changesSince(changes.version() - 10).changes().size());
+    }
+
+    @Test
+    @DisplayName("search finds usernames by prefix, whatever the case, and follows renames")
+    void searchByPrefix() throws Exception {
+        List<String> names = List.of("alice", "Albert", "alfred", "bob", "ALINE");
+        for (int i = 0; i < names.size(); i++) {
+            list.registerContact(names.get(i), InetAddress.getByAddress(new byte[] {10, 4, 0, (byte) (i + 1)}));
+        }
+        assertEquals(List.of("Albert", "alfred", "alice", "ALINE"), names(list.search("AL", 10)));
+        assertEquals(List.of("alice", "ALINE"), names(list.search("ali", 10)));
+        assertEquals(2, list.search("a", 2).size());
+        assertTrue(list.search("carol", 10).isEmpty());
+
+        Contact bob = list.getContact("bob").orElseThrow();
+        list.changeContactUsername(bob.getAddress(), "alfie");
+        assertEquals(List.of("alfie", "alfred"), names(list.search("alf", 10)));
+        assertTrue(list.search("bob", 10).isEmpty());
+
+        list.flush();
+        assertTrue(list.search("", 10).isEmpty());
+    }
+
+    @Test
+    @DisplayName("prefix search among 50k contacts returns every match, the exact one first, up to the limit")
+    void searchLargeRoster() throws Exception {
+        List<Contact> roster = new ArrayList<>();
+        for (int i = 0; i < 50_000; i++) {
+            roster.add(new Contact("user" + i, InetAddress.getByAddress(new byte[] {10, 5, (byte) (i >> 8), (byte) i})));
+        }
+        list.registerContacts(roster);
+        assertEquals(50_000, list.getContacts().size());
+
+        List<Contact> found = list.search("user4999", 20);
+        assertEquals(11, found.size()); // user4999 and user49990..user49999
+        assertEquals("user4999", found.get(0).getUsername());
+        assertEquals(20, list.search("USER", 20).size());
+    }
+
+    private static List<String> names(List<Contact> contacts) {
+        return contacts.stream().map(Contact::getUsername).toList();
+    }
+
+    @Test
+    @DisplayName("concurrent claims of one username: exactly one wins")
+    void concurrentRegistrationsStayUnique() throws Exception {
+        int threads = 8;
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicInteger registered = new AtomicInteger();
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            InetAddress address = InetAddress.getByAddress(new byte[] {10, 2, 0, (byte) (i + 1)});
+            Thread worker = new Thread(() -> {
+                try {
+                    start.await();
+                    list.registerContact("lucy", address);
+                    registered.incrementAndGet();
+                } catch (UsernameAlreadyTakenException | InterruptedException ignored) {}
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        start.countDown();
+        for (Thread worker : workers) worker.join();
+
+        assertEquals(1, registered.get());
+        assertEquals(1, list.getContacts().size());
+    }
+
     @Test
     @DisplayName("null or blank usernames are rejected")
     void rejectNullOrBlankUsernames() {
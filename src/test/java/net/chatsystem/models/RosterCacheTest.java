@@ -0,0 +1,116 @@
+package net.chatsystem.models;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+@DisplayName("RosterCache persistence and stale contacts")
+class RosterCacheTest {
+
+    @TempDir
+    Path directory;
+
+    private ContactList list;
+
+    @BeforeEach
+    void setUp() {
+        User.getInstance().setUsername("localUser");
+        list = ContactList.getInstance();
+        list.flush();
+    }
+
+    @AfterEach
+    void tearDown() {
+        list.flush();
+    }
+
+    @Test
+    @DisplayName("10k contacts round trip with their last status and last seen")
+    void roundTrip() throws Exception {
+        List<Contact> roster = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            Contact contact = new Contact("user" + i, InetAddress.getByAddress(new byte[] {10, 6, (byte) (i >> 8), (byte) i}));
+            contact.setStatus(i % 2 == 0 ? User.Status.AWAY : User.Status.OFFLINE);
+            contact.setLastSeen(1_000 + i);
+            roster.add(contact);
+        }
+        roster.add(new Contact("six", InetAddress.getByName("fe80::6")));
+        Path file = directory.resolve("cache").resolve("roster.bin");
+        RosterCache.write(file, roster);
+
+        List<Contact> read = RosterCache.read(file);
+        assertEquals(roster.size(), read.size());
+        Contact away = read.get(42);
+        assertEquals("user42", away.getUsername());
+        assertEquals(roster.get(42).getAddress(), away.getAddress());
+        assertTrue(away.isStale());
+        assertEquals(User.Status.AWAY, away.getCachedStatus());
+        assertEquals(User.Status.OFFLINE, away.getStatus());
+        Contact offline = read.get(43);
+        assertEquals(User.Status.OFFLINE, offline.getCachedStatus());
+        assertEquals(1_043, offline.getLastSeen());
+        assertEquals(InetAddress.getByName("fe80::6"), read.get(10_000).getAddress());
+        // the AWAY ones were around when saved
+        assertTrue(away.getLastSeen() > 1_000_000);
+    }
+
+    @Test
+    @DisplayName("restored contacts are stale until heard from, and give their username up")
+    void staleContacts() throws Exception {
+        InetAddress aliceAddress = InetAddress.getByName("10.0.0.1");
+        InetAddress bobAddress = InetAddress.getByName("10.0.0.2");
+        long since = list.getSnapshot().version();
+        Contact live = list.registerContact("carol", InetAddress.getByName("10.0.0.3"));
+        Contact alice = cached("alice", aliceAddress);
+        Contact bob = cached("bob", bobAddress);
+        Contact carol = cached("carol", InetAddress.getByName("10.0.0.4"));
+
+        assertEquals(2, list.restore(List.of(alice, bob, carol)));
+        assertTrue(list.getContact("carol").orElseThrow() == live); // discovery got there first
+        assertTrue(alice.isStale());
+        assertEquals(User.Status.OFFLINE, alice.getStatus());
+
+        // alice answers discovery
+        assertTrue(list.registerContact("alice", aliceAddress) == alice);
+        assertFalse(alice.isStale());
+        assertEquals(User.Status.ONLINE, alice.getStatus());
+
+        // someone else logs in as bob, who is long gone
+        Contact newBob = list.registerContact("bob", InetAddress.getByName("10.0.0.9"));
+        assertTrue(list.findContactByIP(bobAddress) == null);
+        assertTrue(list.getContact("bob").orElseThrow() == newBob);
+
+        List<ContactList.Change.Kind> kinds = list.changesSince(since).changes().stream().map(ContactList.Change::kind).toList();
+        assertTrue(kinds.contains(ContactList.Change.Kind.REMOVED));
+    }
+
+    @Test
+    @DisplayName("anything but a roster cache is rejected")
+    void rejectsOtherFiles() throws IOException {
+        Path file = directory.resolve("roster.bin");
+        Files.write(file, new byte[] {1, 2, 3, 4, 5, 6, 7, 8});
+        assertThrows(IOException.class, () -> RosterCache.read(file));
+    }
+
+    private static Contact cached(String username, InetAddress address) {
+        Contact contact = new Contact(username, address);
+        contact.setCachedStatus(User.Status.ONLINE);
+        contact.setStatus(User.Status.OFFLINE);
+        return contact;
+    }
+
+}
@@ -0,0 +1,83 @@
+package net.chatsystem.network;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+@DisplayName("AddressIndex open addressing by IPv4 address")
+class AddressIndexTest {
+
+    @Test
+    @DisplayName("behaves as a HashMap through random puts and removes, resizes included")
+    void matchesHashMap() throws UnknownHostException {
+        AddressIndex<String> index = new AddressIndex<>();
+        Map<InetAddress, String> expected = new HashMap<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 20_000; i++) {
+            // few distinct addresses, so that removes hit and probe chains form and break
+            InetAddress address = address(random.nextInt(600));
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(address), index.remove(address));
+            } else {
+                String value = "v" + i;
+                assertEquals(expected.put(address, value), index.put(address, value));
+            }
+            assertEquals(expected.size(), index.size());
+        }
+        for (int i = 0; i < 600; i++) assertEquals(expected.get(address(i)), index.get(address(i)));
+    }
+
+    @Test
+    @DisplayName("IPv6 addresses, 0.0.0.0 and conditional removes")
+    void edgeCases() throws UnknownHostException {
+        AddressIndex<String> index = new AddressIndex<>();
+        InetAddress v6 = InetAddress.getByName("fe80::1");
+        InetAddress zero = InetAddress.getByName("0.0.0.0");
+        index.put(v6, "six");
+        index.put(zero, "zero");
+        assertEquals("six", index.get(InetAddress.getByName("fe80::1")));
+        assertEquals("zero", index.get(zero));
+        assertNull(index.get(null));
+        assertEquals(2, index.size());
+
+        assertFalse(index.remove(zero, "other"));
+        assertTrue(index.remove(zero, "zero"));
+        assertFalse(index.containsKey(zero));
+    }
+
+    @Test
+    @DisplayName("a copy is independent of the original")
+    void copies() throws UnknownHostException {
+        AddressIndex<String> index = new AddressIndex<>();
+        index.put(address(1), "a");
+        AddressIndex<String> copy = index.copy();
+        index.put(address(2), "b");
+        index.remove(address(1));
+
+        assertEquals("a", copy.get(address(1)));
+        assertNull(copy.get(address(2)));
+        assertEquals(1, copy.size());
+    }
+
+    @Test
+    @DisplayName("keys are the packed address")
+    void packsAddresses() throws UnknownHostException {
+        assertEquals(0xC0A80102, AddressIndex.key((Inet4Address) InetAddress.getByName("192.168.1.2")));
+    }
+
+    private static InetAddress address(int i) throws UnknownHostException {
+        return InetAddress.getByAddress(new byte[] {(byte) 192, (byte) 168, (byte) (i >> 8), (byte) i});
+    }
+
+}
@@ -0,0 +1,128 @@
+package net.chatsystem.network.chat;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import net.chatsystem.models.Contact;
+import net.chatsystem.network.messages.Message;
+import net.chatsystem.observer.IObserver;
+
+/**
+ *  Loopback comparison of the chat engines, not a unit test (run it by hand):
+ *
+ *  mvn test-compile exec:java -D exec.classpathScope=test
+ *      -D exec.mainClass="net.chatsystem.network.chat.ChatEngineBenchmark" -D exec.args="1000 5000"
+ *
+ *  For every engine and connection count, it opens that many sockets to a local ChatServer,
+ *  then reports live platform threads, heap and RSS, and the one-way latency of chat messages
+ *  (send timestamp is carried in the message content).
+ *  Every connection uses two file descriptors, so raise `ulimit -n` before trying 5k.
+ */
+public class ChatEngineBenchmark {
+
+    private static final int ROUNDS = 5;
+    private static final int PORT = 2600;
+
+    public static void main(String[] args) throws Exception {
+        int[] counts = args.length == 0
+                ? new int[] {1000, 5000}
+                : Arrays.stream(args).mapToInt(Integer::parseInt).toArray();
+
+        System.out.printf("%-16s %8s %10s %10s %10s %10s %10s%n",
+                "engine", "conns", "threads", "heap MB", "rss MB", "p50 us", "p99 us");
+        for (ChatServer.Engine engine : ChatServer.Engine.values()) {
+            for (int count : counts) {
+                run(engine, count);
+            }
+        }
+        System.exit(0);
+    }
+
+    private static void run(ChatServer.Engine engine, int count) throws Exception {
+        ChatServer.ENGINE = engine;
+        ChatServer server = new ChatServer();
+        server.LISTEN_PORT = PORT;
+
+        long[] latencies = new long[count * ROUNDS];
+        int[] received = {0};
+        CountDownLatch done = new CountDownLatch(count * ROUNDS);
+        server.addObserver(new IObserver() {
+            @Override
+            public void onChatMessage(Contact from, String chat) {
+                long latency = System.nanoTime() - Long.parseLong(chat);
+                synchronized (latencies) {
+                    latencies[received[0]++] = latency;
+                }
+                done.countDown();
+            }
+        });
+        server.bind();
+        server.start();
+
+        List<Socket> sockets = new ArrayList<>(count);
+        try {
+            for (int i = 0; i < count; i++) {
+                Socket s = new Socket();
+                s.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), PORT));
+                sockets.add(s);
+            }
+            Thread.sleep(1000); // let the server settle on all connections
+
+            System.gc();
+            int threads = ManagementFactory.getThreadMXBean().getThreadCount();
+            long heap = Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+            long rss = residentSetSize();
+
+            for (int round = 0; round < ROUNDS; round++) {
+                for (Socket s : sockets) {
+                    send(s, new Message(Message.Type.CHAT_MESSAGE, Long.toString(System.nanoTime()), null));
+                }
+            }
+            if (!done.await(60, TimeUnit.SECONDS)) {
+                System.out.printf("%-16s %8d timed out%n", engine, count);
+                return;
+            }
+
+            Arrays.sort(latencies);
+            System.out.printf("%-16s %8d %10d %10d %10s %10d %10d%n",
+                    engine, count, threads, heap >> 20, rss < 0 ? "n/a" : Long.toString(rss >> 20),
+                    latencies[latencies.length / 2] / 1000,
+                    latencies[(int) (latencies.length * 0.99)] / 1000);
+        } finally {
+            for (Socket s : sockets) s.close();
+            server.stopServer();
+            Thread.sleep(500);
+        }
+    }
+
+    private static void send(Socket socket, Message message) throws IOException {
+        byte[] buffer = message.toBuffer();
+        DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+        out.writeInt(buffer.length);
+        out.write(buffer);
+        out.flush();
+    }
+
+    // resident memory of the whole JVM (Linux only), -1 if unavailable
+    private static long residentSetSize() {
+        try {
+            for (String line : Files.readAllLines(Path.of("/proc/self/status"))) {
+                if (line.startsWith("VmRSS:")) {
+                    return Long.parseLong(line.replaceAll("[^0-9]", "")) * 1024;
+                }
+            }
+        } catch (IOException | NumberFormatException ignored) {}
+        return -1;
+    }
+}
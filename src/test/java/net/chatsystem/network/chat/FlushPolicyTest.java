@@ -0,0 +1,102 @@
+package net.chatsystem.network.chat;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.io.DataInputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import net.chatsystem.models.Contact;
+import net.chatsystem.network.messages.Message;
+
+@DisplayName("Coalesced writes flush early once enough is queued")
+class FlushPolicyTest {
+
+    private static final int MAX_BYTES = 256;
+
+    private FlushPolicy policy;
+
+    @BeforeEach
+    void setUp() {
+        policy = ChatServer.FLUSH_POLICY;
+        // a delay no test waits out: anything written in time was flushed for its size
+        ChatServer.FLUSH_POLICY = FlushPolicy.coalesce(TimeUnit.SECONDS.toMicros(60), MAX_BYTES);
+    }
+
+    @AfterEach
+    void tearDown() {
+        ChatServer.FLUSH_POLICY = policy;
+    }
+
+    private static Message chat(String content) {
+        return new Message(Message.Type.CHAT_MESSAGE, content, null);
+    }
+
+    @Test
+    @DisplayName("the socket engine's writer flushes as soon as maxBytes are buffered")
+    void socketEngine() throws Exception {
+        ChatServer server = new ChatServer();
+        flushesOnceFull(new SocketChatEngine(server, Executors.newCachedThreadPool()));
+    }
+
+    @Test
+    @DisplayName("the selector engine stops deferring a write as soon as maxBytes are queued")
+    void selectorEngine() throws Exception {
+        ChatServer server = new ChatServer();
+        flushesOnceFull(new SelectorChatEngine(server));
+    }
+
+    private void flushesOnceFull(ChatEngine engine) throws Exception {
+        engine.bind(0);
+        Thread loop = new Thread(() -> {
+            try {
+                engine.serve();
+            } catch (Exception ignored) {}
+        });
+        loop.start();
+        try (ServerSocket peer = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            Contact contact = new Contact("peer", InetAddress.getLoopbackAddress());
+            ChatConnection connection = engine
+                    .connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), peer.getLocalPort()), contact, 5000)
+                    .get(5, TimeUnit.SECONDS);
+            try (Socket accepted = peer.accept()) {
+                // well under maxBytes, held back for more to join
+                CompletableFuture<Void> small = connection.send(chat("hi"));
+                Thread.sleep(100);
+                assertFalse(small.isDone());
+
+                // together they are over it, both go out without waiting for the delay
+                CompletableFuture<Void> large = connection.send(chat("x".repeat(MAX_BYTES)));
+                small.get(5, TimeUnit.SECONDS);
+                large.get(5, TimeUnit.SECONDS);
+
+                DataInputStream in = new DataInputStream(accepted.getInputStream());
+                assertEquals("hi", read(in).getContent());
+                assertEquals("x".repeat(MAX_BYTES), read(in).getContent());
+            } finally {
+                connection.close();
+            }
+        } finally {
+            engine.stop();
+            loop.join(5000);
+        }
+    }
+
+    private static Message read(DataInputStream in) throws Exception {
+        byte[] frame = new byte[in.readInt()];
+        in.readFully(frame);
+        return Message.parse(frame, frame.length, InetAddress.getLoopbackAddress());
+    }
+
+}
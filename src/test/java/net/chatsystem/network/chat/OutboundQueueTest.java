@@ -0,0 +1,94 @@
+package net.chatsystem.network.chat;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import net.chatsystem.network.exceptions.OutboundQueueFullException;
+import net.chatsystem.network.messages.Message;
+
+@DisplayName("OutboundQueue overflow policies")
+class OutboundQueueTest {
+
+    private static Message chat(String content) {
+        return new Message(Message.Type.CHAT_MESSAGE, content, null);
+    }
+
+    private static Throwable failure(CompletableFuture<Void> future) {
+        ExecutionException e = assertThrows(ExecutionException.class, future::get);
+        return e.getCause();
+    }
+
+    @Test
+    @DisplayName("FAIL_FAST rejects new messages once full")
+    void failFast() {
+        OutboundQueue queue = new OutboundQueue(2, OutboundQueue.OverflowPolicy.FAIL_FAST);
+        CompletableFuture<Void> first = queue.offer(chat("1"), true);
+        queue.offer(chat("2"), true);
+        CompletableFuture<Void> third = queue.offer(chat("3"), true);
+
+        assertInstanceOf(OutboundQueueFullException.class, failure(third));
+        assertFalse(first.isDone());
+        assertEquals(2, queue.size());
+    }
+
+    @Test
+    @DisplayName("DROP_OLDEST makes room by failing the oldest message")
+    void dropOldest() {
+        OutboundQueue queue = new OutboundQueue(2, OutboundQueue.OverflowPolicy.DROP_OLDEST);
+        CompletableFuture<Void> first = queue.offer(chat("1"), true);
+        queue.offer(chat("2"), true);
+        queue.offer(chat("3"), true);
+
+        assertInstanceOf(OutboundQueueFullException.class, failure(first));
+        assertEquals("2", queue.poll().message().getContent());
+        assertEquals("3", queue.poll().message().getContent());
+        assertNull(queue.poll());
+    }
+
+    @Test
+    @DisplayName("BLOCK waits for the writer, unless the caller may not block")
+    void block() throws Exception {
+        OutboundQueue queue = new OutboundQueue(1, OutboundQueue.OverflowPolicy.BLOCK);
+        queue.offer(chat("1"), true);
+
+        // a thread that may not block is failed right away
+        assertInstanceOf(OutboundQueueFullException.class, failure(queue.offer(chat("loop"), false)));
+
+        CompletableFuture<CompletableFuture<Void>> blocked = CompletableFuture.supplyAsync(() -> queue.offer(chat("2"), true));
+        Thread.sleep(100);
+        assertFalse(blocked.isDone());
+
+        assertEquals("1", queue.take().message().getContent());
+        CompletableFuture<Void> second = blocked.get(1, TimeUnit.SECONDS);
+        assertFalse(second.isDone());
+        assertEquals("2", queue.take().message().getContent());
+    }
+
+    @Test
+    @DisplayName("close() fails queued and later messages, and releases the writer")
+    void close() throws Exception {
+        OutboundQueue queue = new OutboundQueue(4, OutboundQueue.OverflowPolicy.BLOCK);
+        CompletableFuture<Void> queued = queue.offer(chat("1"), true);
+        IOException cause = new IOException("gone");
+
+        queue.close(cause);
+
+        assertSame(cause, failure(queued));
+        assertInstanceOf(IOException.class, failure(queue.offer(chat("2"), true)));
+        assertNull(queue.take());
+        assertTrue(queue.isEmpty());
+    }
+}
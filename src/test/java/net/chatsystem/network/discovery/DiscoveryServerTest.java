@@ -1,22 +1,31 @@
 package net.chatsystem.network.discovery;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.lang.reflect.Field;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
-import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
 
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 
+import net.chatsystem.models.Contact;
+import net.chatsystem.models.ContactList;
 import net.chatsystem.models.User;
 import net.chatsystem.network.messages.Message;
 import net.chatsystem.network.messages.MessageBuilder;
+import net.chatsystem.network.messages.WireFormat;
+import net.chatsystem.observer.IObserver;
 
 @DisplayName("DiscoveryServer - Simple Fake-Socket Tests")
 class DiscoveryServerTest {
@@ -32,10 +41,14 @@ class DiscoveryServerTest {
 
         // inject a fake socket
         fakeSocket = new FakeDatagramSocket();
-        server = DiscoveryServer.getInstance();
-        Field socketField = DiscoveryServer.class.getDeclaredField("socket");
-        socketField.setAccessible(true);
-        socketField.set(server, fakeSocket);
+        // a fresh server, so that no retransmission of a previous test lands in this socket
+        server = withFakeSocket(new DiscoveryServer());
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.disconnect();
+        ContactList.getInstance().flush();
     }
 
     @Test
@@ -50,7 +63,8 @@ class DiscoveryServerTest {
         // parse it and make sure it's correct
         Message msg = parse(sent.get(0));
         assertEquals(Message.Type.DISCOVER_ME, msg.getType());
-        assertEquals("me", msg.getContent());
+        assertEquals("me", Claim.strip(WireFormat.stripAdvertisement(msg.getContent())));
+        assertEquals(WireFormat.LATEST, WireFormat.advertisedBy(msg.getContent()));
         assertEquals(DiscoveryServer.BROADCAST_ADDRESS, msg.getAddress());
     }
 
@@ -95,12 +109,237 @@ class DiscoveryServerTest {
         assertTrue(fakeSocket.getSent().isEmpty());
     }
 
+    @Test
+    @DisplayName("attemptLogin() retransmits DISCOVER_ME, then logs in")
+    void loginRetransmitsAndConfirms() throws Exception {
+        CountDownLatch loggedIn = new CountDownLatch(1);
+        server.addObserver(new IObserver() {
+            @Override
+            public void onLoggedIn(User as) {
+                loggedIn.countDown();
+            }
+        });
+
+        server.attemptLogin();
+        assertTrue(loggedIn.await(5, TimeUnit.SECONDS));
+
+        long discoverMes = fakeSocket.getSent().stream().filter(p -> parse(p).getType() == Message.Type.DISCOVER_ME).count();
+        assertEquals(1 + DiscoveryServer.CLAIM_RETRANSMITS, discoverMes);
+    }
+
+    @Test
+    @DisplayName("acknowledgements to the first DISCOVER_ME shorten the waits that follow")
+    void acknowledgedLoginConfirmsSooner() throws Exception {
+        CountDownLatch loggedIn = new CountDownLatch(1);
+        server.addObserver(new IObserver() {
+            @Override
+            public void onLoggedIn(User as) {
+                loggedIn.countDown();
+            }
+        });
+
+        Message acknowledgement = new MessageBuilder()
+                .setType(Message.Type.ACKNOWLEDGE_DISCOVER)
+                .setContent(Presence.encode("peer", User.Status.ONLINE, 0))
+                .setAddress(InetAddress.getByName("10.0.0.2"))
+                .build();
+
+        long initial = RttEstimator.INITIAL_TIMEOUT;
+        // with nothing sampled the claim waits as long as it ever would, any round trip short of a third of that shortens it
+        RttEstimator.INITIAL_TIMEOUT = RttEstimator.MAX_TIMEOUT;
+        try {
+            server.attemptLogin();
+            server.handleMessage(acknowledgement);
+            assertTrue(loggedIn.await(10, TimeUnit.SECONDS));
+            assertTrue(rtt(server).timeout() < RttEstimator.INITIAL_TIMEOUT);
+        } finally {
+            RttEstimator.INITIAL_TIMEOUT = initial;
+        }
+    }
+
+    @Test
+    @DisplayName("an older peer retrying under another username is acknowledged again, not taken for a retransmission")
+    void olderPeerRetriesUnderAnotherUsername() throws Exception {
+        server.attemptLogin();
+        InetAddress peerAddress = InetAddress.getByName("10.0.0.2");
+        Message first = new MessageBuilder()
+                .setType(Message.Type.DISCOVER_ME)
+                .setContent("alice")
+                .setAddress(peerAddress)
+                .build();
+        Message retry = new MessageBuilder()
+                .setType(Message.Type.DISCOVER_ME)
+                .setContent("alice2")
+                .setAddress(peerAddress)
+                .build();
+
+        server.handleMessage(first);
+        awaitCondition(() -> acknowledgements(peerAddress) == 1);
+        server.handleMessage(first); // a retransmission, answered already
+        server.handleMessage(retry);
+        awaitCondition(() -> acknowledgements(peerAddress) == 2);
+        assertEquals("alice2", ContactList.getInstance().getContactByIP(peerAddress).orElseThrow().getUsername());
+    }
+
+    private long acknowledgements(InetAddress to) {
+        return fakeSocket.getSent().stream()
+                .map(this::parse)
+                .filter(m -> m.getType() == Message.Type.ACKNOWLEDGE_DISCOVER && m.getAddress().equals(to))
+                .count();
+    }
+
+    @Test
+    @DisplayName("an objection stops the retransmissions and the login")
+    void objectionCancelsLogin() throws Exception {
+        CountDownLatch loggedIn = new CountDownLatch(1);
+        server.addObserver(new IObserver() {
+            @Override
+            public void onLoggedIn(User as) {
+                loggedIn.countDown();
+            }
+        });
+
+        server.attemptLogin();
+        server.handleMessage(new MessageBuilder()
+                .setType(Message.Type.USERNAME_ALREADY_TAKEN)
+                .setAddress(InetAddress.getByName("10.0.0.9"))
+                .build());
+
+        assertFalse(loggedIn.await(1, TimeUnit.SECONDS));
+        assertEquals(1, fakeSocket.getSent().size());
+    }
+
+    @Test
+    @DisplayName("simultaneous logins with the same username: the earlier claim wins, the other withdraws silently")
+    void simultaneousLoginsTieBreak() throws Exception {
+        FakeDatagramSocket otherSocket = new FakeDatagramSocket();
+        DiscoveryServer other = new DiscoveryServer();
+        Field socketField = DiscoveryServer.class.getDeclaredField("socket");
+        socketField.setAccessible(true);
+        socketField.set(other, otherSocket);
+        CountDownLatch loggedIn = new CountDownLatch(2);
+        CountDownLatch taken = new CountDownLatch(2);
+        IObserver observer = new IObserver() {
+            @Override
+            public void onLoggedIn(User as) {
+                loggedIn.countDown();
+            }
+
+            @Override
+            public void onUsernameTaken() {
+                taken.countDown();
+            }
+        };
+        server.addObserver(observer);
+        other.addObserver(observer);
+
+        // both claim "me" before hearing from each other
+        server.attemptLogin();
+        other.attemptLogin();
+        Message ours = parse(fakeSocket.getSent().get(0));
+        Message theirs = parse(otherSocket.getSent().get(0));
+        Claim ourClaim = Claim.of(WireFormat.stripAdvertisement(ours.getContent()));
+        Claim theirClaim = Claim.of(WireFormat.stripAdvertisement(theirs.getContent()));
+        assertTrue(ourClaim.compareTo(theirClaim) != 0);
+        boolean weWin = ourClaim.compareTo(theirClaim) < 0;
+        DiscoveryServer winner = weWin ? server : other, loser = weWin ? other : server;
+        FakeDatagramSocket winnerSocket = weWin ? fakeSocket : otherSocket, loserSocket = weWin ? otherSocket : fakeSocket;
+        Message winnerClaim = weWin ? ours : theirs, loserClaim = weWin ? theirs : ours;
+        winnerSocket.getSent().clear();
+        loserSocket.getSent().clear();
+
+        // each one hears the other's DISCOVER_ME
+        InetAddress winnerAddress = InetAddress.getByName("10.0.0.21"), loserAddress = InetAddress.getByName("10.0.0.22");
+        winner.handleMessage(new MessageBuilder().setType(Message.Type.DISCOVER_ME).setContent(loserClaim.getContent()).setAddress(loserAddress).build());
+        loser.handleMessage(new MessageBuilder().setType(Message.Type.DISCOVER_ME).setContent(winnerClaim.getContent()).setAddress(winnerAddress).build());
+        // and the objection of the winner reaches the loser
+        assertEquals(Message.Type.USERNAME_ALREADY_TAKEN, parse(winnerSocket.getSent().get(0)).getType());
+        loser.handleMessage(new MessageBuilder().setType(Message.Type.USERNAME_ALREADY_TAKEN).setAddress(winnerAddress).build());
+
+        assertTrue(loserSocket.getSent().stream().noneMatch(p -> parse(p).getType() == Message.Type.USERNAME_ALREADY_TAKEN));
+        assertFalse(loggedIn.await(1500, TimeUnit.MILLISECONDS));
+        assertEquals(1, loggedIn.getCount()); // the winner only
+        assertEquals(1, taken.getCount()); // reported once, to the loser only
+        assertFalse(loser.isConnected());
+        other.disconnect();
+    }
+
+    @Test
+    @DisplayName("a peer cut off by a partition is still sent heartbeats, and is back ONLINE once the link heals")
+    void partitionHeals() throws Exception {
+        long interval = DiscoveryServer.HEARTBEAT_INTERVAL;
+        DiscoveryServer.HEARTBEAT_INTERVAL = 20;
+        try {
+            CountDownLatch loggedIn = new CountDownLatch(1);
+            server.addObserver(new IObserver() {
+                @Override
+                public void onLoggedIn(User as) {
+                    loggedIn.countDown();
+                }
+            });
+            server.attemptLogin();
+            assertTrue(loggedIn.await(5, TimeUnit.SECONDS));
+            InetAddress peerAddress = InetAddress.getByName("10.0.0.2");
+            Contact peer = ContactList.getInstance().registerContact("peer", peerAddress);
+            peer.setWireFormat(WireFormat.V2);
+
+            // nothing gets through either way: the peer is suspected after a few silent intervals
+            awaitCondition(() -> peer.getStatus() == User.Status.OFFLINE);
+            // but still sent heartbeats, the peer runs this same code and takes us back once they get through
+            fakeSocket.getSent().clear();
+            awaitCondition(() -> fakeSocket.getSent().stream()
+                    .map(DiscoveryServerTest.this::parse)
+                    .anyMatch(m -> m.getType() == Message.Type.STATUS_CHANGE && m.getAddress().equals(peerAddress)));
+
+            // the link heals, and the peer's next heartbeat gets through
+            server.handleMessage(new MessageBuilder()
+                    .setType(Message.Type.STATUS_CHANGE)
+                    .setContent(User.Status.ONLINE.toString())
+                    .setAddress(peerAddress)
+                    .build());
+            assertEquals(User.Status.ONLINE, peer.getStatus());
+        } finally {
+            DiscoveryServer.HEARTBEAT_INTERVAL = interval;
+        }
+    }
+
+    @Test
+    @DisplayName("claims round trip after the username, and order by time then node")
+    void claims() {
+        Claim claim = new Claim(42, -7);
+        String claimed = Claim.append("me", claim);
+        assertEquals("me", claimed.trim()); // what older peers read
+        assertEquals("me", Claim.strip(claimed));
+        assertEquals(claim, Claim.of(claimed));
+        assertEquals(null, Claim.of("me"));
+        assertTrue(new Claim(1, 9).compareTo(new Claim(2, 0)) < 0);
+        assertTrue(new Claim(2, 0).compareTo(new Claim(2, 1)) < 0);
+    }
+
+    private static void awaitCondition(BooleanSupplier condition) throws InterruptedException {
+        for (int waited = 0; waited < 5000 && !condition.getAsBoolean(); waited += 10) Thread.sleep(10);
+        assertTrue(condition.getAsBoolean());
+    }
+
+    private static RttEstimator rtt(DiscoveryServer server) throws Exception {
+        Field rttField = DiscoveryServer.class.getDeclaredField("rtt");
+        rttField.setAccessible(true);
+        return (RttEstimator) rttField.get(server);
+    }
+
+    private DiscoveryServer withFakeSocket(DiscoveryServer server) throws Exception {
+        Field socketField = DiscoveryServer.class.getDeclaredField("socket");
+        socketField.setAccessible(true);
+        socketField.set(server, fakeSocket);
+        return server;
+    }
+
     /**
      *  FakeDatagramSocket mimicks the behavior of a datagram socket
      *  so we can catch sent packets
      */
     static class FakeDatagramSocket extends DatagramSocket {
-        private final List<DatagramPacket> sent = new ArrayList<>();
+        private final List<DatagramPacket> sent = new CopyOnWriteArrayList<>(); // retransmissions come from the scheduler
 
         FakeDatagramSocket() throws java.net.SocketException {}
 
@@ -0,0 +1,53 @@
+package net.chatsystem.network.discovery;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+@DisplayName("FailureDetector timeouts")
+class FailureDetectorTest {
+
+    private static final long TIMEOUT = 15_000;
+
+    private FailureDetector detector;
+    private InetAddress peer;
+
+    @BeforeEach
+    void setUp() throws UnknownHostException {
+        detector = new FailureDetector();
+        peer = InetAddress.getByName("10.0.0.7");
+    }
+
+    @Test
+    @DisplayName("a peer is suspected only once it has been silent for longer than the timeout")
+    void suspectsSilentPeers() {
+        detector.heard(peer, 0);
+
+        assertFalse(detector.isSuspected(peer, TIMEOUT, TIMEOUT));
+        assertTrue(detector.isSuspected(peer, TIMEOUT + 1, TIMEOUT));
+    }
+
+    @Test
+    @DisplayName("hearing from a peer again clears the suspicion")
+    void heardAgain() {
+        detector.heard(peer, 0);
+        detector.heard(peer, 10_000);
+
+        assertFalse(detector.isSuspected(peer, 20_000, TIMEOUT));
+    }
+
+    @Test
+    @DisplayName("a peer never heard from gets a full timeout from the first check")
+    void unknownPeerStartsNow() {
+        assertFalse(detector.isSuspected(peer, 100_000, TIMEOUT));
+        assertFalse(detector.isSuspected(peer, 100_000 + TIMEOUT, TIMEOUT));
+        assertTrue(detector.isSuspected(peer, 100_001 + TIMEOUT, TIMEOUT));
+    }
+
+}
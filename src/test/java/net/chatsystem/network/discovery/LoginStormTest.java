@@ -0,0 +1,338 @@
+package net.chatsystem.network.discovery;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.reflect.Field;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketException;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import net.chatsystem.models.Contact;
+import net.chatsystem.models.ContactList;
+import net.chatsystem.models.User;
+import net.chatsystem.network.Scheduler;
+import net.chatsystem.network.exceptions.InvalidMessageException;
+import net.chatsystem.network.messages.Message;
+import net.chatsystem.network.messages.MessageBuilder;
+import net.chatsystem.network.messages.WireFormat;
+import net.chatsystem.observer.IObserver;
+
+/**
+ *  Packets delivered on a simulated LAN of N peers when one of them logs in.
+ *  Every peer runs the same code, so the server under test plays the newcomer once,
+ *  and one of the N - 1 peers already online once; a broadcast is delivered to N - 1 hosts.
+ */
+@DisplayName("DiscoveryServer - Simulated LAN Login Tests")
+class LoginStormTest {
+
+    private static final int N = 500;
+
+    private DiscoveryServer server;
+    private SimulatedLan lan;
+    private long jitter;
+    private int rosterRetransmits;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        User.getInstance().setUsername("me");
+        User.getInstance().setStatus(User.Status.ONLINE);
+        ContactList.getInstance().flush();
+        jitter = DiscoveryServer.ACKNOWLEDGE_JITTER;
+        DiscoveryServer.ACKNOWLEDGE_JITTER = 20;
+        rosterRetransmits = DiscoveryServer.ROSTER_RETRANSMITS;
+
+        lan = new SimulatedLan();
+        server = onLan(new DiscoveryServer());
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.disconnect();
+        ContactList.getInstance().flush();
+        User.getInstance().setStatus(User.Status.ONLINE);
+        DiscoveryServer.ACKNOWLEDGE_JITTER = jitter;
+        DiscoveryServer.ROSTER_RETRANSMITS = rosterRetransmits;
+    }
+
+    @Test
+    @DisplayName("a join costs O(N) deliveries at N=500")
+    void joinIsLinear() throws Exception {
+        // as the newcomer: a DISCOVER_ME and its retransmissions, an acknowledgement from every peer,
+        // with its status, and a ROSTER_REQUEST to the first of them, which has nobody else to tell about
+        CountDownLatch loggedIn = new CountDownLatch(1);
+        server.addObserver(new IObserver() {
+            @Override
+            public void onLoggedIn(User as) {
+                loggedIn.countDown();
+            }
+        });
+        server.attemptLogin();
+        for (int i = 1; i < N; i++) {
+            User.Status status = i % 2 == 0 ? User.Status.AWAY : User.Status.ONLINE;
+            server.handleMessage(new MessageBuilder()
+                    .setType(Message.Type.ACKNOWLEDGE_DISCOVER)
+                    .setContent(Presence.encode("peer" + i, status, 0))
+                    .setAddress(peer(i))
+                    .build());
+            if (i == 1) server.handleMessage(snapshot(peer(1), List.of()).get(0));
+        }
+        assertTrue(loggedIn.await(5, TimeUnit.SECONDS));
+        long newcomer = lan.delivered();
+        assertEquals((1L + DiscoveryServer.CLAIM_RETRANSMITS) * (N - 1) + 1, newcomer);
+        assertEquals(1, lan.sent.stream().filter(m -> m.getType() == Message.Type.ROSTER_REQUEST).count());
+        assertEquals(N - 1, ContactList.getInstance().getContacts().size());
+        assertEquals(User.Status.AWAY, ContactList.getInstance().getContactByIP(peer(2)).map(Contact::getStatus).orElseThrow());
+        assertEquals(User.Status.ONLINE, ContactList.getInstance().getContactByIP(peer(3)).map(Contact::getStatus).orElseThrow());
+
+        // as a peer already online: the newcomer's DISCOVER_ME, however many times it is sent, gets a single unicast reply
+        lan.reset();
+        Message discoverMe = new MessageBuilder()
+                .setType(Message.Type.DISCOVER_ME)
+                .setContent(WireFormat.advertise(Claim.append("newcomer", new Claim(1, 42))))
+                .setAddress(peer(N))
+                .build();
+        // the timer thread is held meanwhile, a jitter of 0 would otherwise answer before the repeat arrives
+        CountDownLatch held = new CountDownLatch(1);
+        Scheduler.getInstance().schedule(() -> awaitQuietly(held), 0);
+        server.handleMessage(discoverMe);
+        server.handleMessage(discoverMe);
+        held.countDown();
+        Thread.sleep(DiscoveryServer.ACKNOWLEDGE_JITTER + 200);
+        // and once the reply went out
+        for (int i = 1; i < DiscoveryServer.CLAIM_RETRANSMITS; i++) server.handleMessage(discoverMe);
+        Thread.sleep(DiscoveryServer.ACKNOWLEDGE_JITTER + 200);
+        long peer = lan.delivered();
+        assertEquals(1, peer);
+
+        Message reply = lan.sent.get(0);
+        assertEquals(Message.Type.ACKNOWLEDGE_DISCOVER, reply.getType());
+        assertEquals(peer(N), reply.getAddress());
+        assertEquals("me", Presence.username(reply.getContent()));
+        assertEquals(User.Status.ONLINE, Presence.status(reply.getContent()));
+
+        // each of the N - 1 peers does the same, where every peer used to broadcast its status as well
+        assertEquals((2L + DiscoveryServer.CLAIM_RETRANSMITS) * (N - 1) + 1, newcomer + (N - 1) * peer);
+    }
+
+    @Test
+    @DisplayName("the roster is sent in a few chunks and merged in a single update")
+    void rosterSnapshot() throws Exception {
+        // as the peer asked: every other online contact, in as few datagrams as possible
+        server.attemptLogin();
+        for (int i = 1; i < N; i++) ContactList.getInstance().registerContact("peer" + i, peer(i));
+        ContactList.getInstance().getContactByIP(peer(1)).orElseThrow().setWireFormat(WireFormat.V2);
+        lan.reset();
+        server.handleMessage(new MessageBuilder()
+                .setType(Message.Type.ROSTER_REQUEST)
+                .setAddress(peer(1))
+                .build());
+        List<Message> chunks = lan.sent.stream().filter(m -> m.getType() == Message.Type.ROSTER_SNAPSHOT).toList();
+        assertEquals(N - 2, chunks.stream().mapToInt(chunk -> decode(chunk).contacts().size()).sum());
+        assertTrue(chunks.size() <= (N - 2) / 40 + 1);
+        InetAddress asking = peer(1);
+        assertTrue(chunks.stream().allMatch(chunk -> chunk.getAddress().equals(asking)));
+
+        // as the newcomer that asked: nothing is merged before the last chunk
+        server.disconnect();
+        ContactList.getInstance().flush();
+        List<List<Contact>> updates = new CopyOnWriteArrayList<>();
+        server = onLan(new DiscoveryServer());
+        server.addObserver(new IObserver() {
+            @Override
+            public void onRosterUpdate(List<Contact> contacts) {
+                updates.add(contacts);
+            }
+        });
+        server.attemptLogin();
+        server.handleMessage(new MessageBuilder()
+                .setType(Message.Type.ACKNOWLEDGE_DISCOVER)
+                .setContent(Presence.encode("peer1", User.Status.ONLINE, 0))
+                .setAddress(peer(1))
+                .build());
+        for (Message chunk : chunks.subList(0, chunks.size() - 1)) server.handleMessage(chunk);
+        assertEquals(1, ContactList.getInstance().getContacts().size());
+        server.handleMessage(chunks.get(chunks.size() - 1));
+
+        assertEquals(N - 1, ContactList.getInstance().getContacts().size());
+        Thread.sleep(200);
+        assertEquals(1, updates.size());
+        assertEquals(N - 2, updates.get(0).size());
+    }
+
+    @Test
+    @DisplayName("a lost roster chunk is asked for again, a silent peer is replaced by another")
+    void rosterChunkLost() throws Exception {
+        List<List<Contact>> updates = new CopyOnWriteArrayList<>();
+        server.addObserver(new IObserver() {
+            @Override
+            public void onRosterUpdate(List<Contact> contacts) {
+                updates.add(contacts);
+            }
+        });
+        server.attemptLogin();
+        acknowledge(1);
+        acknowledge(2);
+        List<Contact> roster = new ArrayList<>();
+        for (int i = 2; i < N; i++) roster.add(new Contact("peer" + i, peer(i)));
+        List<Message> chunks = snapshot(peer(1), roster);
+        assertTrue(chunks.size() > 2);
+
+        lan.reset();
+        // the timer thread is held meanwhile, so that the deadline can't pass before the last chunk
+        CountDownLatch held = new CountDownLatch(1);
+        Scheduler.getInstance().schedule(() -> awaitQuietly(held), 0);
+        for (int i = 0; i < chunks.size(); i++) {
+            if (i != 1) server.handleMessage(chunks.get(i));
+        }
+        held.countDown();
+        Message again = awaitSent(Message.Type.ROSTER_REQUEST);
+        assertEquals(peer(1), again.getAddress());
+        assertEquals("1", again.getContent());
+        assertEquals(2, ContactList.getInstance().getContacts().size());
+        server.handleMessage(chunks.get(1));
+
+        assertEquals(N - 1, ContactList.getInstance().getContacts().size());
+        Thread.sleep(200);
+        assertEquals(1, updates.size());
+        assertEquals(N - 3, updates.get(0).size()); // peer2 answered itself
+
+        // the first peer never answers, the second one that acknowledged is asked once it gave up on it
+        server.disconnect();
+        ContactList.getInstance().flush();
+        DiscoveryServer.ROSTER_RETRANSMITS = 0;
+        server = onLan(new DiscoveryServer());
+        server.attemptLogin();
+        acknowledge(1);
+        acknowledge(2);
+        assertEquals(peer(1), awaitSent(Message.Type.ROSTER_REQUEST).getAddress());
+        lan.reset();
+        Message instead = awaitSent(Message.Type.ROSTER_REQUEST);
+        assertEquals(peer(2), instead.getAddress());
+        assertEquals("", instead.getContent());
+    }
+
+    private void acknowledge(int i) throws UnknownHostException {
+        server.handleMessage(new MessageBuilder()
+                .setType(Message.Type.ACKNOWLEDGE_DISCOVER)
+                .setContent(Presence.encode("peer" + i, User.Status.ONLINE, 0))
+                .setAddress(peer(i))
+                .build());
+    }
+
+    private static List<Message> snapshot(InetAddress from, List<Contact> roster) {
+        return RosterSnapshot.encode(roster, 1400).stream()
+                .map(chunk -> new MessageBuilder()
+                        .setType(Message.Type.ROSTER_SNAPSHOT)
+                        .setContent(chunk)
+                        .setAddress(from)
+                        .build())
+                .toList();
+    }
+
+    private Message awaitSent(Message.Type type) throws InterruptedException {
+        for (int waited = 0; waited < 5000; waited += 10) {
+            for (Message message : lan.sent) {
+                if (message.getType() == type) return message;
+            }
+            Thread.sleep(10);
+        }
+        throw new AssertionError("No " + type + " sent");
+    }
+
+    private DiscoveryServer onLan(DiscoveryServer discovery) throws ReflectiveOperationException {
+        Field socketField = DiscoveryServer.class.getDeclaredField("socket");
+        socketField.setAccessible(true);
+        socketField.set(discovery, lan);
+        return discovery;
+    }
+
+    private static RosterSnapshot.Chunk decode(Message chunk) {
+        try {
+            return RosterSnapshot.decode(chunk.getContent());
+        } catch (InvalidMessageException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Test
+    @DisplayName("older peers get a bare username, and a unicast status only when not ONLINE")
+    void olderPeersGetBareAcknowledgement() throws Exception {
+        CountDownLatch loggedIn = new CountDownLatch(1);
+        server.addObserver(new IObserver() {
+            @Override
+            public void onLoggedIn(User as) {
+                loggedIn.countDown();
+            }
+        });
+        server.attemptLogin();
+        assertTrue(loggedIn.await(5, TimeUnit.SECONDS)); // done retransmitting
+        User.getInstance().setStatus(User.Status.AWAY);
+        lan.reset();
+
+        server.handleMessage(new MessageBuilder()
+                .setType(Message.Type.DISCOVER_ME)
+                .setContent("old")
+                .setAddress(peer(1))
+                .build());
+        Thread.sleep(DiscoveryServer.ACKNOWLEDGE_JITTER + 200);
+
+        assertEquals(2, lan.sent.size());
+        assertEquals(Message.Type.ACKNOWLEDGE_DISCOVER, lan.sent.get(0).getType());
+        assertEquals("me", WireFormat.stripAdvertisement(lan.sent.get(0).getContent()));
+        assertEquals(Message.Type.STATUS_CHANGE, lan.sent.get(1).getType());
+        assertEquals(peer(1), lan.sent.get(1).getAddress());
+        assertEquals(2, lan.delivered());
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static InetAddress peer(int i) throws UnknownHostException {
+        return InetAddress.getByAddress(new byte[] {10, 0, (byte) (i >> 8), (byte) i});
+    }
+
+    /**
+     *  Counts deliveries instead of sending: a broadcast reaches the N - 1 other peers, anything else one
+     */
+    static class SimulatedLan extends DatagramSocket {
+        private final List<Message> sent = new CopyOnWriteArrayList<>();
+
+        SimulatedLan() throws SocketException {}
+
+        @Override
+        public void send(DatagramPacket p) {
+            try {
+                sent.add(Message.parse(p.getData(), p.getLength(), p.getAddress()).detach());
+            } catch (Exception e) {
+                throw new RuntimeException("Parse failed", e);
+            }
+        }
+
+        long delivered() {
+            return sent.stream().mapToLong(m -> m.getAddress().equals(DiscoveryServer.BROADCAST_ADDRESS) ? N - 1 : 1).sum();
+        }
+
+        void reset() {
+            sent.clear();
+        }
+    }
+
+}
@@ -0,0 +1,79 @@
+package net.chatsystem.network.discovery;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
+import java.net.NetworkInterface;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import net.chatsystem.models.User;
+import net.chatsystem.network.messages.Message;
+import net.chatsystem.network.messages.WireFormat;
+
+@DisplayName("DiscoveryServer - Multicast Transport Tests")
+class MulticastDiscoveryTest {
+
+    private static final int PORT = 2560;
+
+    private DiscoveryServer server;
+    private MulticastSocket member;
+    private InetAddress group;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        User.getInstance().setUsername("me");
+        DiscoveryServer.TRANSPORT = DiscoveryServer.Transport.MULTICAST;
+        DiscoveryServer.SEND_PORT = PORT;
+        DiscoveryServer.RECEIVE_PORT = PORT;
+        group = InetAddress.getByName(DiscoveryServer.MULTICAST_GROUP);
+
+        // another member of the group on this machine, our own multicasts are looped back to it
+        member = new MulticastSocket(PORT);
+        member.setSoTimeout(2000);
+        for (NetworkInterface iface : DiscoveryServer.multicastInterfaces()) {
+            member.joinGroup(new InetSocketAddress(group, 0), iface);
+        }
+
+        server = new DiscoveryServer();
+        server.bind();
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.disconnect();
+        member.close();
+        DiscoveryServer.TRANSPORT = DiscoveryServer.Transport.BROADCAST;
+        DiscoveryServer.SEND_PORT = 2050;
+        DiscoveryServer.RECEIVE_PORT = 2050;
+    }
+
+    @Test
+    @DisplayName("messages for everyone are sent to the group")
+    void everyoneIsTheGroup() {
+        assertEquals(group, server.getEveryoneAddress());
+        assertTrue(group.isMulticastAddress());
+    }
+
+    @Test
+    @DisplayName("attemptLogin() reaches a member of the group")
+    void loginReachesGroupMember() throws Exception {
+        server.attemptLogin();
+
+        DatagramPacket packet = new DatagramPacket(new byte[256], 256);
+        member.receive(packet);
+        Message msg = Message.parse(packet.getData(), packet.getLength(), packet.getAddress());
+        assertEquals(Message.Type.DISCOVER_ME, msg.getType());
+        assertEquals("me", Claim.strip(WireFormat.stripAdvertisement(msg.getContent())));
+        // looped back from one of our own interfaces, which the server itself ignores
+        assertTrue(msg.isFromMe());
+    }
+
+}
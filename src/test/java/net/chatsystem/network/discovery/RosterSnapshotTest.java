@@ -0,0 +1,84 @@
+package net.chatsystem.network.discovery;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import net.chatsystem.models.Contact;
+import net.chatsystem.models.User;
+import net.chatsystem.network.exceptions.InvalidMessageException;
+import net.chatsystem.network.messages.WireFormat;
+
+@DisplayName("RosterSnapshot chunking")
+class RosterSnapshotTest {
+
+    @Test
+    @DisplayName("500 contacts round trip in chunks that fit the budget")
+    void roundTrip() throws Exception {
+        List<Contact> roster = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            Contact contact = new Contact("user" + i, InetAddress.getByAddress(new byte[] {10, 0, (byte) (i >> 8), (byte) i}));
+            contact.setStatus(i % 3 == 0 ? User.Status.AWAY : User.Status.ONLINE);
+            if (i % 2 == 0) contact.setWireFormat(WireFormat.V2);
+            roster.add(contact);
+        }
+
+        List<String> chunks = RosterSnapshot.encode(roster, 1400);
+        assertTrue(chunks.size() > 1);
+        List<Contact> decoded = new ArrayList<>();
+        for (int i = 0; i < chunks.size(); i++) {
+            assertTrue(chunks.get(i).getBytes(StandardCharsets.UTF_8).length <= 1400);
+            RosterSnapshot.Chunk chunk = RosterSnapshot.decode(chunks.get(i));
+            assertEquals(i, chunk.index());
+            assertEquals(chunks.size(), chunk.total());
+            decoded.addAll(chunk.contacts());
+        }
+
+        assertEquals(500, decoded.size());
+        for (int i = 0; i < 500; i++) {
+            assertEquals(roster.get(i).getUsername(), decoded.get(i).getUsername());
+            assertEquals(roster.get(i).getAddress(), decoded.get(i).getAddress());
+            assertEquals(roster.get(i).getStatus(), decoded.get(i).getStatus());
+            assertEquals(roster.get(i).getWireFormat(), decoded.get(i).getWireFormat());
+        }
+    }
+
+    @Test
+    @DisplayName("an empty roster is a single empty chunk")
+    void emptyRoster() throws InvalidMessageException {
+        List<String> chunks = RosterSnapshot.encode(List.of(), 1400);
+        assertEquals(1, chunks.size());
+        RosterSnapshot.Chunk chunk = RosterSnapshot.decode(chunks.get(0));
+        assertEquals(1, chunk.total());
+        assertTrue(chunk.contacts().isEmpty());
+    }
+
+    @Test
+    @DisplayName("a request names the missing chunks, or asks for all of them")
+    void requests() {
+        assertEquals("1,4", RosterSnapshot.request(List.of(1, 4), 1400));
+        assertEquals("", RosterSnapshot.request(List.of(1, 4), 2));
+        assertEquals(List.of(1, 4), RosterSnapshot.requested("1,4", 5));
+        assertEquals(List.of(0, 1, 2), RosterSnapshot.requested("", 3));
+        assertEquals(List.of(0, 1, 2), RosterSnapshot.requested("7,x", 3)); // out of range, the roster changed
+    }
+
+    @Test
+    @DisplayName("malformed chunks and host names are rejected")
+    void rejectsMalformed() throws UnknownHostException {
+        assertThrows(InvalidMessageException.class, () -> RosterSnapshot.decode("garbage"));
+        assertThrows(InvalidMessageException.class, () -> RosterSnapshot.decode("2/1"));
+        assertThrows(InvalidMessageException.class, () -> RosterSnapshot.decode("0/1\u001Ealice\u001F10.0.0.1\u001FONLINE"));
+        assertThrows(InvalidMessageException.class, () -> RosterSnapshot.decode("0/1\u001Ealice\u001Fexample.com\u001FONLINE\u001F2"));
+    }
+
+}
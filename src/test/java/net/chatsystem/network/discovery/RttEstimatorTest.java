@@ -0,0 +1,33 @@
+package net.chatsystem.network.discovery;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+@DisplayName("RttEstimator timeouts")
+class RttEstimatorTest {
+
+    @Test
+    @DisplayName("the initial timeout is used until the first sample")
+    void initialTimeout() {
+        assertEquals(RttEstimator.INITIAL_TIMEOUT, new RttEstimator().timeout());
+    }
+
+    @Test
+    @DisplayName("a fast LAN brings the timeout down to the minimum, a slow one raises it")
+    void followsSamples() {
+        RttEstimator fast = new RttEstimator();
+        for (int i = 0; i < 10; i++) fast.sample(TimeUnit.MICROSECONDS.toNanos(300));
+        assertEquals(RttEstimator.MIN_TIMEOUT, fast.timeout());
+
+        RttEstimator slow = new RttEstimator();
+        for (int i = 0; i < 10; i++) slow.sample(TimeUnit.MILLISECONDS.toNanos(i % 2 == 0 ? 80 : 160));
+        assertTrue(slow.timeout() > 160);
+        assertTrue(slow.timeout() <= RttEstimator.MAX_TIMEOUT);
+    }
+
+}
@@ -0,0 +1,236 @@
+package net.chatsystem.network.discovery;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.reflect.Field;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketException;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import net.chatsystem.models.Contact;
+import net.chatsystem.models.ContactList;
+import net.chatsystem.models.User;
+import net.chatsystem.network.Network;
+import net.chatsystem.network.messages.Message;
+import net.chatsystem.network.messages.MessageBuilder;
+import net.chatsystem.network.messages.WireFormat;
+
+@DisplayName("SwimMembership probes and dissemination")
+class SwimMembershipTest {
+
+    private DiscoveryServer server;
+    private RecordingSocket socket;
+    private SwimMembership swim;
+    private long period, timeout;
+    private int suspicion;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        User.getInstance().setUsername("me");
+        User.getInstance().setStatus(User.Status.ONLINE);
+        ContactList.getInstance().flush();
+        period = SwimMembership.PROTOCOL_PERIOD;
+        timeout = SwimMembership.PING_TIMEOUT;
+        suspicion = SwimMembership.SUSPICION_PERIODS;
+        SwimMembership.PROTOCOL_PERIOD = 50;
+        SwimMembership.PING_TIMEOUT = 20;
+        SwimMembership.SUSPICION_PERIODS = 1;
+
+        socket = new RecordingSocket();
+        server = new DiscoveryServer();
+        Field socketField = DiscoveryServer.class.getDeclaredField("socket");
+        socketField.setAccessible(true);
+        socketField.set(server, socket);
+        swim = new SwimMembership(server);
+    }
+
+    @AfterEach
+    void tearDown() {
+        ContactList.getInstance().flush();
+        SwimMembership.PROTOCOL_PERIOD = period;
+        SwimMembership.PING_TIMEOUT = timeout;
+        SwimMembership.SUSPICION_PERIODS = suspicion;
+    }
+
+    @Test
+    @DisplayName("one probe per period, with a bounded piggyback, whatever the number of peers")
+    void constantTrafficPerPeriod() throws Exception {
+        for (int i = 1; i <= 2000; i++) member(i);
+        swim.announce();
+
+        for (int round = 0; round < 20; round++) {
+            socket.sent.clear();
+            swim.tick();
+            assertEquals(1, socket.sent.size());
+            Message ping = socket.sent.get(0);
+            assertEquals(Message.Type.PING, ping.getType());
+            assertTrue(updates(ping).size() <= SwimMembership.MAX_PIGGYBACK);
+            // acknowledged, so nobody gets suspected
+            swim.handle(message(Message.Type.PING_ACK, ping.getAddress(), sequence(ping)));
+        }
+        assertEquals(0, ContactList.getInstance().getContacts().stream().filter(c -> c.getStatus() == User.Status.OFFLINE).count());
+    }
+
+    @Test
+    @DisplayName("a silent peer is probed indirectly, suspected, then marked OFFLINE")
+    void silentPeerIsDeclaredDead() throws Exception {
+        Contact silent = member(1);
+        for (int i = 2; i <= 5; i++) member(i);
+        // probe rounds are shuffled, go through the others until the silent peer is the target
+        Message ping;
+        do {
+            socket.sent.clear();
+            swim.tick();
+            ping = socket.sent.get(0);
+            if (!ping.getAddress().equals(silent.getAddress())) swim.handle(message(Message.Type.PING_ACK, ping.getAddress(), sequence(ping)));
+        } while (!ping.getAddress().equals(silent.getAddress()));
+
+        Thread.sleep(SwimMembership.PING_TIMEOUT + 100);
+        List<Message> requests = socket.sent.stream().filter(m -> m.getType() == Message.Type.PING_REQ).toList();
+        assertEquals(SwimMembership.INDIRECT_PROBES, requests.size());
+        assertTrue(requests.stream().allMatch(m -> m.getContent().contains(silent.getAddress().getHostAddress())));
+        assertTrue(requests.stream().noneMatch(m -> m.getAddress().equals(silent.getAddress())));
+
+        // nobody got an answer: suspected, and the suspicion is spread
+        socket.sent.clear();
+        swim.tick();
+        assertTrue(socket.sent.stream().flatMap(m -> updates(m).stream())
+                .anyMatch(u -> silent.getAddress().equals(u.address()) && u.state() == SwimMembership.State.SUSPECT));
+        assertEquals(User.Status.ONLINE, silent.getStatus());
+
+        // not refuted in time
+        Thread.sleep(SwimMembership.PROTOCOL_PERIOD * SwimMembership.SUSPICION_PERIODS + 10);
+        swim.tick();
+        assertEquals(User.Status.OFFLINE, silent.getStatus());
+    }
+
+    @Test
+    @DisplayName("piggybacked changes are applied, and a suspicion about us is refuted")
+    void appliesUpdatesAndRefutes() throws Exception {
+        Contact peer = member(1);
+        swim.announce();
+        long incarnation = selfIncarnation();
+
+        SwimMembership.Update away = new SwimMembership.Update(null, "peer1-renamed", User.Status.AWAY, 10, SwimMembership.State.ALIVE);
+        SwimMembership.Update suspectMe = new SwimMembership.Update(Network.getLocalAddress(), "me", User.Status.ONLINE, incarnation, SwimMembership.State.SUSPECT);
+        swim.handle(message(Message.Type.PING, peer.getAddress(), 7, away, suspectMe));
+
+        assertEquals("peer1-renamed", peer.getUsername());
+        assertEquals(User.Status.AWAY, peer.getStatus());
+
+        // acknowledged, with a newer incarnation of ours
+        Message ack = socket.sent.get(0);
+        assertEquals(Message.Type.PING_ACK, ack.getType());
+        assertEquals(7, sequence(ack));
+        assertTrue(updates(ack).stream().anyMatch(u -> u.address() == null && u.state() == SwimMembership.State.ALIVE && u.incarnation() > incarnation));
+
+        // an older update changes nothing
+        swim.handle(message(Message.Type.PING, peer.getAddress(), 8,
+                new SwimMembership.Update(null, "peer1", User.Status.ONLINE, 9, SwimMembership.State.ALIVE)));
+        assertEquals("peer1-renamed", peer.getUsername());
+    }
+
+    @Test
+    @DisplayName("PING_REQ is relayed to the target and its answer back")
+    void relaysIndirectProbes() throws Exception {
+        Contact requester = member(1);
+        Contact target = member(2);
+        swim.handle(message(Message.Type.PING_REQ, requester.getAddress(), 42, target.getAddress().getHostAddress()));
+
+        Message ping = socket.sent.get(0);
+        assertEquals(Message.Type.PING, ping.getType());
+        assertEquals(target.getAddress(), ping.getAddress());
+
+        socket.sent.clear();
+        swim.handle(message(Message.Type.PING_ACK, target.getAddress(), sequence(ping)));
+        Message ack = socket.sent.get(0);
+        assertEquals(Message.Type.PING_ACK, ack.getType());
+        assertEquals(requester.getAddress(), ack.getAddress());
+        assertEquals(42, sequence(ack));
+    }
+
+    @Test
+    @DisplayName("updates round trip, and precedence follows incarnation then state")
+    void updatesAndPrecedence() throws Exception {
+        SwimMembership.Update update = new SwimMembership.Update(peer(3), "bob", User.Status.DO_NOT_DISTURB, 123, SwimMembership.State.SUSPECT);
+        assertEquals(update, SwimMembership.decode(SwimMembership.encode(update)));
+        SwimMembership.Update self = new SwimMembership.Update(null, "me", User.Status.ONLINE, 1, SwimMembership.State.ALIVE);
+        assertNull(SwimMembership.decode(SwimMembership.encode(self)).address());
+
+        SwimMembership.Member suspect = new SwimMembership.Member(5, SwimMembership.State.SUSPECT);
+        assertFalse(new SwimMembership.Update(null, "x", User.Status.ONLINE, 5, SwimMembership.State.ALIVE).supersedes(suspect));
+        assertTrue(new SwimMembership.Update(null, "x", User.Status.ONLINE, 6, SwimMembership.State.ALIVE).supersedes(suspect));
+        assertTrue(new SwimMembership.Update(null, "x", User.Status.OFFLINE, 5, SwimMembership.State.DEAD).supersedes(suspect));
+        assertFalse(new SwimMembership.Update(null, "x", User.Status.OFFLINE, 4, SwimMembership.State.DEAD).supersedes(suspect));
+    }
+
+    private Contact member(int i) throws Exception {
+        Contact contact = ContactList.getInstance().registerContact("peer" + i, peer(i));
+        contact.setWireFormat(WireFormat.V2);
+        return contact;
+    }
+
+    private static InetAddress peer(int i) throws UnknownHostException {
+        return InetAddress.getByAddress(new byte[] {10, 1, (byte) (i >> 8), (byte) i});
+    }
+
+    private long selfIncarnation() throws Exception {
+        Field field = SwimMembership.class.getDeclaredField("incarnation");
+        field.setAccessible(true);
+        return field.getLong(swim);
+    }
+
+    private static Message message(Message.Type type, InetAddress from, long sequence, SwimMembership.Update... updates) {
+        StringBuilder content = new StringBuilder(String.valueOf(sequence));
+        for (SwimMembership.Update update : updates) content.append('\u001E').append(SwimMembership.encode(update));
+        return new MessageBuilder().setType(type).setContent(content.toString()).setAddress(from).build();
+    }
+
+    private static Message message(Message.Type type, InetAddress from, long sequence, String target) {
+        return new MessageBuilder().setType(type).setContent(sequence + "\u001F" + target).setAddress(from).build();
+    }
+
+    private static long sequence(Message message) {
+        return Long.parseLong(message.getContent().split("[\u001E\u001F]")[0]);
+    }
+
+    private static List<SwimMembership.Update> updates(Message message) {
+        String[] parts = message.getContent().split("\u001E");
+        return Arrays.stream(parts).skip(1).map(part -> {
+            try {
+                return SwimMembership.decode(part);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }).toList();
+    }
+
+    static class RecordingSocket extends DatagramSocket {
+        private final List<Message> sent = new CopyOnWriteArrayList<>();
+
+        RecordingSocket() throws SocketException {}
+
+        @Override
+        public void send(DatagramPacket p) {
+            try {
+                sent.add(Message.parse(p.getData(), p.getLength(), p.getAddress()).detach());
+            } catch (Exception e) {
+                throw new RuntimeException("Parse failed", e);
+            }
+        }
+    }
+
+}
@@ -55,4 +55,31 @@ class MessageBuilderTest {
         assertEquals(Message.Type.CHANGE_USERNAME_REQUEST, msg.getType());
     }
 
-}
\ No newline at end of file
+    @Test
+    @DisplayName("build() carries id and timestamp through both formats")
+    void buildWithIdAndTimestamp() throws Exception {
+        Message msg = new MessageBuilder()
+                .setType(Message.Type.CHAT_MESSAGE)
+                .setContent("hi")
+                .setId(7)
+                .setTimestamp(123456789L)
+                .setAddress(address)
+                .build();
+
+        assertEquals(7, msg.getId());
+        assertEquals(123456789L, msg.getTimestamp());
+
+        byte[] v2 = msg.toBuffer(WireFormat.V2);
+        Message parsedV2 = Message.parse(v2, v2.length, address);
+        assertEquals(7, parsedV2.getId());
+        assertEquals(123456789L, parsedV2.getTimestamp());
+
+        // V1 has no room for them
+        byte[] v1 = msg.toBuffer(WireFormat.V1);
+        Message parsedV1 = Message.parse(v1, v1.length, address);
+        assertEquals("hi", parsedV1.getContent());
+        assertEquals(0, parsedV1.getId());
+        assertEquals(0, parsedV1.getTimestamp());
+    }
+
+}
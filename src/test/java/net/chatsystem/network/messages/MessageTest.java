@@ -1,11 +1,15 @@
 package net.chatsystem.network.messages;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
@@ -14,6 +18,7 @@ import org.junit.jupiter.api.Test;
 import net.chatsystem.models.Contact;
 import net.chatsystem.models.ContactList;
 import net.chatsystem.models.User;
+import net.chatsystem.network.LocalAddresses;
 import net.chatsystem.network.Network;
 import net.chatsystem.network.exceptions.InvalidMessageException;
 import net.chatsystem.network.exceptions.UnknownSenderException;
@@ -52,6 +57,158 @@ class MessageTest {
         assertEquals(original.getAddress(), parsed.getAddress());
     }
 
+    @Test
+    @DisplayName("toFrame() is toBuffer() prefixed with its length")
+    void toFrameIsLengthPrefixed() {
+        Message msg = new Message(Message.Type.CHAT_MESSAGE, "hello", address);
+        byte[] buffer = msg.toBuffer();
+        byte[] frame = msg.toFrame();
+
+        var bb = ByteBuffer.wrap(frame);
+        assertEquals(buffer.length, bb.getInt());
+        assertEquals(buffer.length, bb.remaining());
+        assertEquals(ByteBuffer.wrap(buffer), bb);
+    }
+
+    @Test
+    @DisplayName("toBatchFrame() → parseBatch() keeps every message in order")
+    void batchRoundTrip() throws InvalidMessageException {
+        List<Message> messages = List.of(
+                new Message(Message.Type.CHAT_MESSAGE, "first", address),
+                new Message(Message.Type.CHAT_MESSAGE, "", address),
+                new Message(Message.Type.CHAT_MESSAGE, "third é", address)
+        );
+
+        byte[] frame = Message.toBatchFrame(messages);
+        int length = ByteBuffer.wrap(frame).getInt();
+        byte[] body = Arrays.copyOfRange(frame, Integer.BYTES, frame.length);
+
+        assertEquals(body.length, length);
+        assertEquals(Message.Type.CHAT_BATCH, Message.peekType(body, length));
+        List<Message> parsed = Message.parseBatch(body, length, address);
+        assertEquals(3, parsed.size());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(messages.get(i).getType(), parsed.get(i).getType());
+            assertEquals(messages.get(i).getContent(), parsed.get(i).getContent());
+        }
+    }
+
+    @Test
+    @DisplayName("parseBatch() rejects truncated batches")
+    void parseBatchRejectsTruncated() {
+        byte[] frame = Message.toBatchFrame(List.of(new Message(Message.Type.CHAT_MESSAGE, "hello", address)));
+        byte[] truncated = Arrays.copyOfRange(frame, Integer.BYTES, frame.length - 2);
+
+        assertThrows(InvalidMessageException.class,
+                () -> Message.parseBatch(truncated, truncated.length, address));
+    }
+
+    @Test
+    @DisplayName("V2 toBuffer() → parse() round-trip keeps id and timestamp")
+    void roundTripSerializationV2() throws InvalidMessageException {
+        Message original = new Message(Message.Type.CHAT_MESSAGE, "héllo wörld 👋", address, 42, 1_700_000_000_000L);
+
+        byte[] buffer = original.toBuffer(WireFormat.V2);
+        Message parsed = Message.parse(buffer, buffer.length, address);
+
+        assertEquals(original.getType(), parsed.getType());
+        assertEquals(original.getContent(), parsed.getContent());
+        assertEquals(42, parsed.getId());
+        assertEquals(1_700_000_000_000L, parsed.getTimestamp());
+        assertEquals(buffer.length, original.encodedLength(WireFormat.V2));
+    }
+
+    @Test
+    @DisplayName("V2 halves ASCII content and shrinks the header")
+    void v2IsSmallerForAscii() {
+        Message msg = new Message(Message.Type.CHAT_MESSAGE, "hello world", address);
+
+        assertEquals(Integer.BYTES + 22, msg.toBuffer(WireFormat.V1).length);
+        assertEquals(3 + 1 + 11, msg.toBuffer(WireFormat.V2).length);
+    }
+
+    @Test
+    @DisplayName("parse() tells V1 and V2 buffers apart")
+    void parseDetectsFormat() throws InvalidMessageException {
+        Message msg = new Message(Message.Type.STATUS_CHANGE, "ONLINE", address);
+        byte[] v1 = msg.toBuffer(WireFormat.V1);
+        byte[] v2 = msg.toBuffer(WireFormat.V2);
+
+        assertEquals(WireFormat.V1, WireFormat.of(v1, 0, v1.length));
+        assertEquals(WireFormat.V2, WireFormat.of(v2, 0, v2.length));
+        assertEquals(Message.Type.STATUS_CHANGE, Message.peekType(v2, v2.length));
+        assertEquals("ONLINE", Message.parse(v1, v1.length, address).getContent());
+        assertEquals("ONLINE", Message.parse(v2, v2.length, address).getContent());
+    }
+
+    @Test
+    @DisplayName("parse() throws on unknown versions and bad V2 lengths")
+    void parseRejectsBadV2() {
+        byte[] unknownVersion = {7, 1, 0, 0};
+        byte[] v2 = new Message(Message.Type.CHAT_MESSAGE, "hello", address).toBuffer(WireFormat.V2);
+        byte[] truncated = Arrays.copyOf(v2, v2.length - 1);
+
+        assertThrows(InvalidMessageException.class,
+                () -> Message.parse(unknownVersion, unknownVersion.length, address));
+        assertThrows(InvalidMessageException.class,
+                () -> Message.parse(truncated, truncated.length, address));
+    }
+
+    @Test
+    @DisplayName("V2 toBatchFrame() → parseBatch() keeps every message in order")
+    void batchRoundTripV2() throws InvalidMessageException {
+        List<Message> messages = List.of(
+                new Message(Message.Type.CHAT_MESSAGE, "first", address, 1, 0),
+                new Message(Message.Type.CHAT_MESSAGE, "", address),
+                new Message(Message.Type.CHAT_MESSAGE, "third é", address, 3, 99)
+        );
+
+        byte[] frame = Message.toBatchFrame(messages, WireFormat.V2);
+        int length = ByteBuffer.wrap(frame).getInt();
+        byte[] body = Arrays.copyOfRange(frame, Integer.BYTES, frame.length);
+
+        assertEquals(body.length, length);
+        assertEquals(Message.Type.CHAT_BATCH, Message.peekType(body, length));
+        List<Message> parsed = Message.parseBatch(body, length, address);
+        assertEquals(3, parsed.size());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(messages.get(i).getContent(), parsed.get(i).getContent());
+            assertEquals(messages.get(i).getId(), parsed.get(i).getId());
+            assertEquals(messages.get(i).getTimestamp(), parsed.get(i).getTimestamp());
+        }
+    }
+
+    @Test
+    @DisplayName("advertise() appends a marker that trimming removes")
+    void advertisementRoundTrip() {
+        String content = WireFormat.advertise("alice");
+
+        assertEquals(WireFormat.LATEST, WireFormat.advertisedBy(content));
+        assertEquals("alice", WireFormat.stripAdvertisement(content));
+        assertEquals("alice", content.trim()); // what older peers see
+        assertEquals(WireFormat.V1, WireFormat.advertisedBy("alice"));
+        assertEquals("alice", WireFormat.stripAdvertisement("alice"));
+    }
+
+    @Test
+    @DisplayName("detach() keeps the content once the receive buffer is reused")
+    void detachSurvivesBufferReuse() throws InvalidMessageException {
+        for (WireFormat format : WireFormat.values()) {
+            byte[] receive = new byte[64];
+            byte[] first = new Message(Message.Type.CHAT_MESSAGE, "first", address).toBuffer(format);
+            System.arraycopy(first, 0, receive, 0, first.length);
+
+            Message parsed = Message.parse(receive, first.length, address);
+            Message detached = parsed.detach();
+
+            byte[] second = new Message(Message.Type.CHAT_MESSAGE, "later", address).toBuffer(format);
+            System.arraycopy(second, 0, receive, 0, second.length);
+
+            assertEquals("first", detached.getContent());
+            assertEquals(Message.Type.CHAT_MESSAGE, detached.getType());
+        }
+    }
+
     @Test
     @DisplayName("parse() with empty content works")
     void parseEmptyContent() throws InvalidMessageException {
@@ -75,7 +232,7 @@ class MessageTest {
     @DisplayName("parse() throws on invalid type ordinal")
     void parseInvalidTypeThrows() {
         byte[] buffer = new byte[20 + 2];
-        var bb = java.nio.ByteBuffer.wrap(buffer);
+        var bb = ByteBuffer.wrap(buffer);
         bb.putInt(999); // invalid ordinal for TYPE
         bb.putChar('x');
 
@@ -91,6 +248,15 @@ class MessageTest {
         assertTrue(msg.isFromMe());
     }
 
+    @Test
+    @DisplayName("isFromMe() recognises every local interface, and nothing else")
+    void isFromMeOnEveryInterface() throws UnknownHostException {
+        for (InetAddress local : LocalAddresses.getInstance().getAll()) {
+            assertTrue(new Message(Message.Type.NONE, "", local).isFromMe());
+        }
+        assertFalse(new Message(Message.Type.NONE, "", InetAddress.getByName("203.0.113.7")).isFromMe());
+    }
+
     @Test
     @DisplayName("getSender() throws UnknownSenderException if not in ContactList")
     void getSenderThrowsWhenUnknown() {
@@ -0,0 +1,101 @@
+package net.chatsystem.observer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+@DisplayName("EventBus delivery and metrics")
+class EventBusTest {
+
+    @Test
+    @DisplayName("events reach a subscriber in order, off the publishing thread")
+    void deliversInOrder() throws InterruptedException {
+        EventBus bus = new EventBus(1000);
+        List<String> received = Collections.synchronizedList(new ArrayList<>());
+        List<Thread> threads = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(500);
+        bus.subscribe(new IObserver() {
+            @Override
+            public void onChatMessage(net.chatsystem.models.Contact from, String chat) {
+                received.add(chat);
+                threads.add(Thread.currentThread());
+                done.countDown();
+            }
+        });
+
+        for (int i = 0; i < 500; i++) {
+            String chat = "m" + i;
+            bus.publish(EventKind.CHAT_MESSAGE, o -> o.onChatMessage(null, chat));
+        }
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 500; i++) assertEquals("m" + i, received.get(i));
+        for (Thread thread : threads) assertNotEquals(Thread.currentThread(), thread);
+    }
+
+    @Test
+    @DisplayName("a stuck subscriber drops its own events without holding back the others")
+    void slowSubscriberOnlyDropsItsOwn() throws InterruptedException {
+        EventBus bus = new EventBus(4);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch fastDone = new CountDownLatch(10);
+        EventBus.Subscriber slow = bus.subscribe(new IObserver() {
+            @Override
+            public void onUsernameTaken() {
+                try {
+                    release.await();
+                } catch (InterruptedException ignored) {}
+            }
+        });
+        EventBus.Subscriber fast = bus.subscribe(new IObserver() {
+            @Override
+            public void onUsernameTaken() {
+                fastDone.countDown();
+            }
+        });
+
+        // the fast one keeps up as long as it is not flooded
+        for (int i = 0; i < 10; i++) {
+            bus.publish(EventKind.USERNAME_TAKEN, IObserver::onUsernameTaken);
+            Thread.sleep(5);
+        }
+
+        assertTrue(fastDone.await(5, TimeUnit.SECONDS));
+        assertEquals(0, fast.getDropped());
+        // one event is stuck in the callback, four wait in the queue, the rest is gone
+        assertEquals(4, slow.getLag());
+        assertEquals(5, slow.getDropped());
+
+        release.countDown();
+    }
+
+    @Test
+    @DisplayName("subscribers only get the kinds of events they override")
+    void indexedByKind() {
+        EventBus bus = new EventBus(8);
+        EventBus.Subscriber subscriber = bus.subscribe(new IObserver() {
+            @Override
+            public void onUsernameTaken() {}
+        });
+
+        assertEquals(Set.of(EventKind.USERNAME_TAKEN), subscriber.getKinds());
+        assertTrue(bus.hasSubscribers(EventKind.USERNAME_TAKEN));
+        assertFalse(bus.hasSubscribers(EventKind.CONTACT_STATUS_UPDATE));
+
+        bus.unsubscribe(subscriber.getObserver());
+        assertFalse(bus.hasSubscribers(EventKind.USERNAME_TAKEN));
+        assertTrue(bus.getSubscribers().isEmpty());
+    }
+
+}